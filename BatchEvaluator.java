@@ -0,0 +1,208 @@
+/**
+ * Scores many independent boards at once, for batch analysis and playouts
+ *
+ * Boards are held in structure-of-arrays form: xPieces[i] and oPieces[i] are the Bitboard masks of board i
+ * The scores are the same as Game.scoreField's: MAX_SCORE if X has a line, -MAX_SCORE if O has one, TIE_SCORE
+ * if the board is full, NO_WINNER_YET_SCORE otherwise
+ * That holds for boards no game can reach as well: when both sides have a line, the lines are checked in
+ * scoreField's order (row i and column i together for each i, X first, then the two diagonals) and the first
+ * pair that holds a line decides
+ *
+ * create() returns the SIMD version (VectorBoardEvaluator in vector/, which checks each win line for a whole
+ * vector of boards per instruction) when it was compiled and the JVM was started with
+ * --add-modules jdk.incubator.vector, and this scalar version otherwise
+ *
+ * Run "java [--add-modules jdk.incubator.vector] BatchEvaluator [board size] [number of boards]" to compare
+ * the throughput with Game.scoreField
+ */
+
+import java.util.Random;
+
+public class BatchEvaluator
+{
+    protected final int boardSize;
+    protected final int[] firstLines, secondLines; //line pair g: row g and column g, then the two diagonals
+    protected final int fullBoard;
+    
+    public BatchEvaluator(int boardSize)
+    {
+        this.boardSize = boardSize;
+        int[] winLines = Bitboard.winLines(boardSize); //rows, then columns, then the diagonals
+        firstLines = new int[boardSize + 1];
+        secondLines = new int[boardSize + 1];
+        for (int g = 0; g <= boardSize; g++)
+        {
+            firstLines[g] = winLines[(g < boardSize) ? g : 2 * boardSize];
+            secondLines[g] = winLines[(g < boardSize) ? boardSize + g : 2 * boardSize + 1];
+        }
+        fullBoard = Bitboard.fullBoard(boardSize);
+    }
+    
+    /**
+     * @return the fastest evaluator this JVM supports
+     */
+    public static BatchEvaluator create(int boardSize)
+    {
+        try
+        {
+            return (BatchEvaluator)Class.forName("VectorBoardEvaluator").getConstructor(int.class)
+                                        .newInstance(boardSize);
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            return new BatchEvaluator(boardSize); //the Vector API module isn't available
+        }
+    }
+    
+    /**
+     * Scores boards [0, count) into scores
+     */
+    public void evaluate(int[] xPieces, int[] oPieces, int[] scores, int count)
+    {
+        evaluateScalar(xPieces, oPieces, scores, 0, count);
+    }
+    
+    protected void evaluateScalar(int[] xPieces, int[] oPieces, int[] scores, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            int x = xPieces[i], o = oPieces[i];
+            boolean xWon = false, oWon = false;
+            for (int g = 0; g < firstLines.length && !xWon && !oWon; g++)
+            {
+                xWon = (x & firstLines[g]) == firstLines[g] || (x & secondLines[g]) == secondLines[g];
+                oWon = (o & firstLines[g]) == firstLines[g] || (o & secondLines[g]) == secondLines[g];
+            }
+            if (xWon)
+                scores[i] = Game.MAX_SCORE;
+            else if (oWon)
+                scores[i] = -Game.MAX_SCORE;
+            else if ((x | o) == fullBoard)
+                scores[i] = Game.TIE_SCORE;
+            else
+                scores[i] = Game.NO_WINNER_YET_SCORE;
+        }
+    }
+    
+    public String getName() {return "scalar";}
+    
+    /**
+     * Fills the arrays with positions from random games (each stopped at a random move or when it ends), or with
+     * every square taken at random by X, O, or nobody if anyBoards is set (mostly boards no game can reach)
+     */
+    private static void randomBoards(int boardSize, int[] xPieces, int[] oPieces, long seed, boolean anyBoards)
+    {
+        Random random = new Random(seed);
+        int numSquares = boardSize * boardSize;
+        for (int i = 0; i < xPieces.length; i++)
+        {
+            if (anyBoards)
+            {
+                xPieces[i] = 0;
+                oPieces[i] = 0;
+                for (int square = 0; square < numSquares; square++)
+                {
+                    int owner = random.nextInt(3);
+                    if (owner == 1)
+                        xPieces[i] |= 1 << square;
+                    else if (owner == 2)
+                        oPieces[i] |= 1 << square;
+                }
+                continue;
+            }
+            long position = Bitboard.EMPTY;
+            int numMoves = 1 + random.nextInt(numSquares);
+            for (int j = 0; j < numMoves; j++)
+            {
+                int square;
+                do
+                {
+                    square = random.nextInt(numSquares);
+                } while ((Bitboard.occupied(position) & (1 << square)) != 0);
+                position = Bitboard.play(position, square);
+                if (Bitboard.hasLine(Bitboard.lastMoverPieces(position), boardSize))
+                    break;
+            }
+            xPieces[i] = Bitboard.xPieces(position);
+            oPieces[i] = Bitboard.oPieces(position);
+        }
+    }
+    
+    public static void main(String[] args)
+    {
+        int boardSize = (args.length > 0) ? Integer.parseInt(args[0]) : Game.BOARD_SIZE;
+        int numBoards = (args.length > 1) ? Integer.parseInt(args[1]) : 1 << 20;
+        int rounds = 20;
+        int[] xPieces = new int[numBoards], oPieces = new int[numBoards];
+        int[] scalarScores = new int[numBoards], vectorScores = new int[numBoards];
+        randomBoards(boardSize, xPieces, oPieces, 42, false);
+        
+        BatchEvaluator scalar = new BatchEvaluator(boardSize);
+        BatchEvaluator best = create(boardSize);
+        if (best.getClass() == BatchEvaluator.class)
+            System.out.println("Vector API not available (start with --add-modules jdk.incubator.vector)");
+        for (int round = 0; round < 3; round++) //warm-up
+        {
+            scalar.evaluate(xPieces, oPieces, scalarScores, numBoards);
+            best.evaluate(xPieces, oPieces, vectorScores, numBoards);
+        }
+        long scalarTime = 0, bestTime = 0;
+        for (int round = 0; round < rounds; round++)
+        {
+            long start = System.nanoTime();
+            scalar.evaluate(xPieces, oPieces, scalarScores, numBoards);
+            scalarTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            best.evaluate(xPieces, oPieces, vectorScores, numBoards);
+            bestTime += System.nanoTime() - start;
+        }
+        
+        //Game.scoreField is the per-board path the minimax search takes (field string -> char[][] -> score)
+        long gameTime = 0;
+        int mismatches = 0;
+        if (boardSize == Game.BOARD_SIZE)
+        {
+            Game game = new Game();
+            int numGameBoards = Math.min(numBoards, 1 << 18);
+            String[] fields = new String[numGameBoards];
+            for (int i = 0; i < numGameBoards; i++)
+                fields[i] = Bitboard.toField(Bitboard.position(xPieces[i], oPieces[i]), boardSize);
+            for (int i = 0; i < numGameBoards; i++) //warm-up, and checks the scores agree
+            {
+                if (game.scoreField(fields[i]) != vectorScores[i])
+                    mismatches++;
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < numGameBoards; i++)
+                game.scoreField(fields[i]);
+            gameTime = (System.nanoTime() - start) * numBoards / numGameBoards; //scaled to numBoards
+        }
+        for (int i = 0; i < numBoards; i++)
+        {
+            if (scalarScores[i] != vectorScores[i])
+                mismatches++;
+        }
+        int numAnyBoards = Math.min(numBoards, 1 << 16); //not timed, only checked
+        randomBoards(boardSize, xPieces, oPieces, 43, true);
+        scalar.evaluate(xPieces, oPieces, scalarScores, numAnyBoards);
+        best.evaluate(xPieces, oPieces, vectorScores, numAnyBoards);
+        Game checkGame = (boardSize == Game.BOARD_SIZE) ? new Game() : null;
+        for (int i = 0; i < numAnyBoards; i++)
+        {
+            if (scalarScores[i] != vectorScores[i] || (checkGame != null && vectorScores[i] !=
+                checkGame.scoreField(Bitboard.toField(Bitboard.position(xPieces[i], oPieces[i]), boardSize))))
+                mismatches++;
+        }
+        
+        System.out.println(numBoards + " " + boardSize + "x" + boardSize + " boards, single thread:");
+        if (gameTime > 0)
+            System.out.println(String.format("  %-24s %8.1f M boards/s", "Game.scoreField",
+                                             numBoards / (gameTime / 1e3)));
+        System.out.println(String.format("  %-24s %8.1f M boards/s", "scalar batch",
+                                         (double)numBoards * rounds / (scalarTime / 1e3)));
+        System.out.println(String.format("  %-24s %8.1f M boards/s", best.getName() + " batch",
+                                         (double)numBoards * rounds / (bestTime / 1e3)));
+        System.out.println((mismatches == 0) ? "All scores agree (also on " + numAnyBoards + " arbitrary boards)" :
+                           mismatches + " scores disagree");
+    }
+}
\ No newline at end of file
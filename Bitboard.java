@@ -0,0 +1,220 @@
+/**
+ * Compact board representation for the solvers, for boards up to 5x5
+ *
+ * A position is a long: the low 32 bits hold a bit per square with an X on it, the high 32 bits a bit per
+ * square with an O on it (square = row * boardSize + col, the same order as Game's field strings)
+ * X always moves first, so whose turn it is can be worked out from the number of pieces
+ * The win rules are the same as Game's: a full row, column, or either long diagonal
+ */
+
+import java.util.Arrays;
+
+public class Bitboard
+{
+    public static final int MAX_BOARD_SIZE = 5;
+    public static final long EMPTY = 0L;
+    private static final int[][] WIN_LINES = new int[MAX_BOARD_SIZE + 1][];
+    
+    static
+    {
+        for (int size = 1; size <= MAX_BOARD_SIZE; size++)
+        {
+            WIN_LINES[size] = buildWinLines(size);
+        }
+    }
+    
+    private static int[] buildWinLines(int size)
+    {
+        int[] lines = new int[2 * size + 2];
+        for (int i = 0; i < size; i++)
+        {
+            for (int j = 0; j < size; j++)
+            {
+                lines[i] |= 1 << (i * size + j); //row i
+                lines[size + i] |= 1 << (j * size + i); //column i
+            }
+            lines[2 * size] |= 1 << (i * size + i); //diagonal going down and right
+            lines[2 * size + 1] |= 1 << (i * size + size - i - 1); //diagonal going down and left
+        }
+        return lines;
+    }
+    
+    /**
+     * @return a bit mask for each row, column, and diagonal (rows first, then columns, then the two diagonals)
+     */
+    public static int[] winLines(int boardSize) {return WIN_LINES[boardSize];}
+    
+    /**
+     * @return a mask with a bit set for every square of the board
+     */
+    public static int fullBoard(int boardSize)
+    {
+        return (boardSize * boardSize == 32) ? -1 : (1 << (boardSize * boardSize)) - 1;
+    }
+    
+    /**
+     * @return true if the given pieces complete at least one line
+     */
+    public static boolean hasLine(int pieces, int boardSize)
+    {
+        int[] lines = WIN_LINES[boardSize];
+        for (int i = 0; i < lines.length; i++)
+        {
+            if ((pieces & lines[i]) == lines[i])
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * @return a mask of the empty squares where the given pieces would complete a line: the squares left in lines
+     *         that have none of the other player's pieces and all their other squares taken
+     */
+    public static int winningSquares(int pieces, int otherPieces, int boardSize)
+    {
+        int squares = 0;
+        int[] lines = WIN_LINES[boardSize];
+        for (int i = 0; i < lines.length; i++)
+        {
+            if ((otherPieces & lines[i]) == 0 && Integer.bitCount(pieces & lines[i]) == boardSize - 1)
+                squares |= lines[i] & ~pieces;
+        }
+        return squares;
+    }
+    
+    /**
+     * @return true if the player (X if x is true, O otherwise) can still complete a line: some line has none of
+     *         the other player's pieces and needs no more pieces than the player has moves left
+     */
+    public static boolean canStillWin(long position, boolean x, int boardSize)
+    {
+        int empty = Integer.bitCount(~occupied(position) & fullBoard(boardSize));
+        int movesLeft = (isXToMove(position) == x) ? (empty + 1) / 2 : empty / 2;
+        int own = x ? xPieces(position) : oPieces(position), other = x ? oPieces(position) : xPieces(position);
+        int[] lines = WIN_LINES[boardSize];
+        for (int i = 0; i < lines.length; i++)
+        {
+            if ((other & lines[i]) == 0 && boardSize - Integer.bitCount(own & lines[i]) <= movesLeft)
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * @return true if neither player can complete a line any more, so the game is certain to end in a tie
+     */
+    public static boolean isDeadDraw(long position, int boardSize)
+    {
+        return !canStillWin(position, true, boardSize) && !canStillWin(position, false, boardSize);
+    }
+    
+    /**
+     * Packing/unpacking positions
+     */
+    public static long position(int xPieces, int oPieces) {return ((long)oPieces << 32) | (xPieces & 0xFFFFFFFFL);}
+    public static int xPieces(long position) {return (int)position;}
+    public static int oPieces(long position) {return (int)(position >>> 32);}
+    public static int occupied(long position) {return xPieces(position) | oPieces(position);}
+    public static int numPieces(long position) {return Integer.bitCount(occupied(position));}
+    public static boolean isXToMove(long position) {return Integer.bitCount(xPieces(position)) ==
+                                                           Integer.bitCount(oPieces(position));}
+    
+    /**
+     * @return the position after the player to move puts a piece on the given square
+     */
+    public static long play(long position, int square)
+    {
+        return isXToMove(position) ? position | (1L << square) : position | (1L << (square + 32));
+    }
+    
+    /**
+     * @return the pieces of the player who moved last
+     */
+    public static int lastMoverPieces(long position)
+    {
+        return isXToMove(position) ? oPieces(position) : xPieces(position);
+    }
+    
+    /**
+     * @return the pieces of the player whose turn it is
+     */
+    public static int moverPieces(long position)
+    {
+        return isXToMove(position) ? xPieces(position) : oPieces(position);
+    }
+    
+    /**
+     * Converts a field string in Game's format (e.g. "X_O______", '_' for empty squares)
+     */
+    public static long fromField(String field)
+    {
+        int x = 0, o = 0;
+        for (int i = 0; i < field.length(); i++)
+        {
+            if (field.charAt(i) == 'X')
+                x |= 1 << i;
+            else if (field.charAt(i) == 'O')
+                o |= 1 << i;
+        }
+        return position(x, o);
+    }
+    
+    public static String toField(long position, int boardSize)
+    {
+        char[] field = new char[boardSize * boardSize];
+        Arrays.fill(field, '_');
+        for (int i = 0; i < field.length; i++)
+        {
+            if ((xPieces(position) & (1 << i)) != 0)
+                field[i] = 'X';
+            else if ((oPieces(position) & (1 << i)) != 0)
+                field[i] = 'O';
+        }
+        return new String(field);
+    }
+    
+    /**
+     * @return the square index of the size x size board after applying one of the 8 symmetries of the square
+     *         (symmetry 0 is the identity, 1-3 are rotations, 4-7 are the rotations after a mirror)
+     */
+    public static int transformSquare(int square, int symmetry, int boardSize)
+    {
+        int r = square / boardSize, c = square % boardSize, last = boardSize - 1;
+        if (symmetry >= 4)
+            c = last - c;
+        for (int i = 0; i < symmetry % 4; i++)
+        {
+            int temp = r;
+            r = c;
+            c = last - temp;
+        }
+        return r * boardSize + c;
+    }
+    
+    public static long transform(long position, int symmetry, int boardSize)
+    {
+        int x = 0, o = 0;
+        for (int i = 0; i < boardSize * boardSize; i++)
+        {
+            int j = transformSquare(i, symmetry, boardSize);
+            if ((xPieces(position) & (1 << i)) != 0)
+                x |= 1 << j;
+            if ((oPieces(position) & (1 << i)) != 0)
+                o |= 1 << j;
+        }
+        return position(x, o);
+    }
+    
+    /**
+     * @return the smallest of the position's 8 symmetric versions, so that symmetric positions share one key
+     */
+    public static long canonical(long position, int boardSize)
+    {
+        long best = position;
+        for (int symmetry = 1; symmetry < 8; symmetry++)
+        {
+            best = Math.min(best, transform(position, symmetry, boardSize));
+        }
+        return best;
+    }
+}
\ No newline at end of file
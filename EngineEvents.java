@@ -0,0 +1,124 @@
+/**
+ * Java Flight Recorder events for the engine and the GUI, for always-on profiling with the standard JFR tools
+ *
+ * The events are off by default: they are only registered with JFR when the program runs with
+ * -Dtictactoe.jfr=true, and every emitting site checks ENABLED (a constant) first, so without the flag they
+ * cost nothing. With it, record as usual, e.g.
+ *   java -Dtictactoe.jfr=true -XX:StartFlightRecording:filename=game.jfr PlayGame
+ *   jfr print --categories TicTacToe game.jfr
+ * Deep subtree searches are reported when one findBestMoveScore call searches at least
+ * -Dtictactoe.jfr.deepSearchNodes nodes (default 1000)
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Registered;
+import jdk.jfr.StackTrace;
+
+public class EngineEvents
+{
+    public static final boolean ENABLED = Boolean.getBoolean("tictactoe.jfr");
+    public static final long DEEP_SEARCH_NODES = Long.getLong("tictactoe.jfr.deepSearchNodes", 1000);
+    
+    static
+    {
+        if (ENABLED)
+        {
+            FlightRecorder.register(EnemyMove.class);
+            FlightRecorder.register(DeepSearch.class);
+            FlightRecorder.register(CacheEviction.class);
+            FlightRecorder.register(ClickRepaint.class);
+        }
+    }
+    
+    @Name("tictactoe.EnemyMove")
+    @Label("Computer Move")
+    @Description("One call to Game.enemyMove, from the board before the move")
+    @Category("TicTacToe")
+    @Registered(false)
+    @StackTrace(false)
+    public static class EnemyMove extends Event
+    {
+        @Label("Board")
+        public String board;
+        
+        @Label("Board Size")
+        public int boardSize;
+        
+        @Label("Square")
+        public int square;
+        
+        @Label("Nodes")
+        public long nodes;
+        
+        @Label("Cache Hits")
+        public long cacheHits;
+        
+        @Label("Dead Positions")
+        @Description("Positions where no one could still complete a line, returned as ties without searching")
+        public long deadPositions;
+    }
+    
+    @Name("tictactoe.DeepSearch")
+    @Label("Deep Subtree Search")
+    @Description("A minimax subtree that searched at least tictactoe.jfr.deepSearchNodes nodes")
+    @Category("TicTacToe")
+    @Registered(false)
+    @StackTrace(false)
+    public static class DeepSearch extends Event
+    {
+        @Label("Board")
+        public String board;
+        
+        @Label("Depth")
+        public int depth;
+        
+        @Label("Nodes")
+        public long nodes;
+        
+        @Label("Cache Hits")
+        public long cacheHits;
+    }
+    
+    @Name("tictactoe.CacheEviction")
+    @Label("Cache Evictions")
+    @Description("Entries a search cache replaced with other positions during one computer move")
+    @Category("TicTacToe")
+    @Registered(false)
+    @StackTrace(false)
+    public static class CacheEviction extends Event
+    {
+        @Label("Cache")
+        public String cache; //"bestMoves" or "df-pn"
+        
+        @Label("Evictions")
+        public long evictions;
+        
+        @Label("Capacity")
+        @DataAmount
+        public long capacityBytes; //0 for tables without a fixed size
+    }
+    
+    @Name("tictactoe.ClickRepaint")
+    @Label("Click To Repaint")
+    @Description("From a click on the board to the end of the repaint that shows its result")
+    @Category("TicTacToe")
+    @Registered(false)
+    @StackTrace(false)
+    public static class ClickRepaint extends Event
+    {
+        @Label("Square")
+        public int square;
+        
+        @Label("Computer Moved")
+        public boolean computerMoved;
+        
+        @Label("Game Over")
+        public boolean gameOver;
+    }
+}
\ No newline at end of file
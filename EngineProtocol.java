@@ -0,0 +1,142 @@
+/**
+ * Line-based engine protocol on stdin/stdout, for running the AI under an external match manager
+ *
+ * This entry point only uses Game and the solvers, never GameGUI or PlayGame, so no java.awt or javax.swing
+ * class gets loaded: it starts fast and runs on machines without a display
+ *
+ * Commands (one per line):
+ *   isready                              -> readyok
+ *   newgame                              starts over from the empty board
+ *   position startpos [moves <sq> ...]   the empty board, then the given moves
+ *   position field <field> [moves ...]   a field string like "X___O____", then the given moves
+ *   go [nodes <n>] [movetime <ms>]       searches the position to move with the given budget (only the
+ *                                        proof-number solver used on 4x4 and 5x5 boards needs one)
+ *                                        -> info nodes <n> cachehits <n> deadpositions <n> time <ms> nps <n>
+ *                                        -> bestmove <sq>   (or "bestmove none" if the game is over)
+ *   quit
+ * Squares are numbered row * boardSize + col, starting at 0
+ * The board size is Game's (-Dtictactoe.boardSize); errors are reported as "info string error: ..." lines
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+public class EngineProtocol
+{
+    private final BufferedReader in;
+    private final PrintStream out;
+    private Game game;
+    
+    public EngineProtocol(BufferedReader in, PrintStream out)
+    {
+        this.in = in;
+        this.out = out;
+        game = new Game();
+    }
+    
+    /**
+     * Reads and answers commands until "quit" or the end of the input
+     */
+    public void run() throws IOException
+    {
+        out.println("id name TicTacToe-AI-Minimax");
+        out.println("boardsize " + Game.BOARD_SIZE);
+        for (String line = in.readLine(); line != null; line = in.readLine())
+        {
+            String[] tokens = line.trim().split("\\s+");
+            try
+            {
+                switch (tokens[0])
+                {
+                    case "isready": out.println("readyok");
+                                    break;
+                    case "newgame": game = new Game();
+                                    break;
+                    case "position": position(tokens);
+                                     break;
+                    case "go": go(tokens);
+                               break;
+                    case "quit": return;
+                    case "": break;
+                    default: out.println("info string error: unknown command " + tokens[0]);
+                }
+            }
+            catch (GameException | IllegalArgumentException | IndexOutOfBoundsException e)
+            {
+                out.println("info string error: " + e.getMessage());
+            }
+            out.flush();
+        }
+    }
+    
+    private void position(String[] tokens) throws GameException
+    {
+        int next;
+        if (tokens[1].equals("startpos"))
+        {
+            game.resetField();
+            game.setPosition(game.curFieldToString());
+            next = 2;
+        }
+        else if (tokens[1].equals("field"))
+        {
+            if (tokens[2].length() != Game.NUM_SQUARES)
+                throw new IllegalArgumentException("expected a field of " + Game.NUM_SQUARES + " squares");
+            game.setPosition(tokens[2]);
+            next = 3;
+        }
+        else
+            throw new IllegalArgumentException("position needs startpos or field");
+        if (next < tokens.length && tokens[next].equals("moves"))
+        {
+            for (int i = next + 1; i < tokens.length; i++)
+            {
+                int square = Integer.parseInt(tokens[i]);
+                if (game.getWinner() != -1)
+                    throw new GameException("move " + square + " played after the game ended");
+                game.playerMove(square / Game.BOARD_SIZE, square % Game.BOARD_SIZE);
+            }
+        }
+    }
+    
+    private void go(String[] tokens) throws GameException
+    {
+        long nodes = Game.SOLVER_NODE_BUDGET, movetime = 0;
+        for (int i = 1; i + 1 < tokens.length; i += 2)
+        {
+            if (tokens[i].equals("nodes"))
+                nodes = Long.parseLong(tokens[i + 1]);
+            else if (tokens[i].equals("movetime"))
+                movetime = Long.parseLong(tokens[i + 1]);
+        }
+        if (game.getWinner() != -1)
+        {
+            out.println("bestmove none");
+            return;
+        }
+        game.setSolverNodeBudget(nodes);
+        game.setSolverTimeLimit(movetime);
+        String before = game.curFieldToString();
+        long start = System.nanoTime();
+        MoveScheduler.shared().move(game, MoveScheduler.PRIORITY_INTERACTIVE,
+                                    (movetime > 0) ? movetime : MoveScheduler.NO_DEADLINE);
+        long elapsed = System.nanoTime() - start;
+        String after = game.curFieldToString();
+        game.setPosition(before); //the manager sends the move back with its next position command
+        int square = 0;
+        while (before.charAt(square) == after.charAt(square))
+            square++;
+        long nps = game.getNodesSearched() * 1000000000L / Math.max(1, elapsed);
+        out.println("info nodes " + game.getNodesSearched() + " cachehits " + game.getCacheHits() +
+                    " deadpositions " + game.getDeadPositions() + " time " + elapsed / 1000000 + " nps " + nps);
+        out.println("bestmove " + square);
+    }
+    
+    public static void main(String[] args) throws IOException
+    {
+        EngineWarmup.start();
+        new EngineProtocol(new BufferedReader(new InputStreamReader(System.in)), System.out).run();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,184 @@
+/**
+ * Warms the engine up on a background thread while the program starts
+ *
+ * The computer's first move is the most expensive one (it searches from an empty or nearly empty board), and
+ * it also runs before the JIT has compiled any of the search code. The warm-up solves those opening positions
+ * ahead of time with a scratch Game, which both fills the shared opening cache and gets the hot search
+ * methods compiled, so the real first move is a cache lookup
+ * Symmetric positions are solved once: the chosen move is stored for all 8 rotations/reflections
+ * Each opening gets at most NODE_BUDGET nodes (-Dtictactoe.warmupNodeBudget): the warm-up stops at the first one
+ * it can't solve within that, and isn't started at all on boards larger than MAX_BOARD_SIZE, whose openings
+ * no budget it could afford would solve (the empty 5x5 board isn't solved within millions of nodes)
+ *
+ * Disable it with -Dtictactoe.warmup=false
+ * Run "java EngineWarmup [cold|warm] [startup delay in ms]" to measure the time to the computer's first move
+ * with or without warm-up (the delay stands in for the time the window takes to come up)
+ */
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class EngineWarmup
+{
+    private static final ConcurrentHashMap<String, String> openingMoves = new ConcurrentHashMap<String, String>();
+                                                                   //field -> field after the computer's move
+    private static final Object progress = new Object(); //notified every time an opening has been solved
+    private static final CountDownLatch finished = new CountDownLatch(1);
+    private static final int MAX_BOARD_SIZE = 4;
+    private static final long NODE_BUDGET = Long.getLong("tictactoe.warmupNodeBudget", 1000000); //per opening
+    private static Thread thread; //null until start() is called
+    
+    /**
+     * Starts the warm-up thread (only the first call does anything, and nothing on boards above MAX_BOARD_SIZE)
+     */
+    public static synchronized void start()
+    {
+        if (thread != null || !Boolean.parseBoolean(System.getProperty("tictactoe.warmup", "true")) ||
+            Game.BOARD_SIZE > MAX_BOARD_SIZE)
+            return;
+        thread = new Thread(new Runnable() {
+            public void run()
+            {
+                try
+                {
+                    warmUp();
+                }
+                finally
+                {
+                    finished.countDown();
+                    synchronized (progress)
+                    {
+                        progress.notifyAll();
+                    }
+                }
+            }
+        }, "engine-warmup");
+        thread.setDaemon(true); //never keeps the program alive
+        thread.start();
+    }
+    
+    /**
+     * Waits for the warm-up to finish
+     * @return true if it has finished, false if it timed out or was never started
+     */
+    public static boolean await(long timeoutMs)
+    {
+        if (thread == null)
+            return false;
+        try
+        {
+            return finished.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Waits until the field's opening reply is ready or the warm-up has finished, whichever comes first
+     * Fields the warm-up doesn't solve (see isOpening) return right away
+     * @return the warmed-up reply, or null if there is none (yet)
+     */
+    public static String awaitOpening(String field, long timeoutMs)
+    {
+        if (!isOpening(field))
+            return null;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (progress)
+        {
+            String reply = lookup(field);
+            while (reply == null && thread != null && !isFinished() && System.currentTimeMillis() < deadline)
+            {
+                try
+                {
+                    progress.wait(Math.max(1, deadline - System.currentTimeMillis()));
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                reply = lookup(field);
+            }
+            return reply;
+        }
+    }
+    
+    /**
+     * @return the warmed-up reply for the field, or null if the field isn't an opening position solved so far
+     */
+    public static String lookup(String field) {return openingMoves.get(field);}
+    
+    /**
+     * @return true if the field is one of the positions the warm-up solves: the empty board and the positions after
+     *         the first move
+     */
+    public static boolean isOpening(String field) {return Bitboard.numPieces(Bitboard.fromField(field)) <= 1;}
+    
+    public static boolean isStarted() {return thread != null;}
+    public static boolean isFinished() {return finished.getCount() == 0;}
+    
+    /**
+     * Solves the empty board (computer moves first), then the symmetry-distinct positions after the player's
+     * first move (player moves first), until one of them uses up NODE_BUDGET
+     */
+    private static void warmUp()
+    {
+        int size = Game.BOARD_SIZE;
+        ArrayList<Long> openings = new ArrayList<Long>();
+        openings.add(Bitboard.EMPTY);
+        for (int square = 0; square < size * size; square++)
+        {
+            long opening = Bitboard.canonical(Bitboard.play(Bitboard.EMPTY, square), size);
+            if (!openings.contains(opening))
+                openings.add(opening);
+        }
+        for (long opening : openings)
+        {
+            Game scratch = new Game();
+            scratch.setWarmupWait(0); //the scratch game must not wait for the warm-up itself
+            scratch.setSolverNodeBudget(Math.min(NODE_BUDGET, scratch.getSolverNodeBudget()));
+            scratch.setSolverMoveNodeBudget(NODE_BUDGET);
+            scratch.setPosition(Bitboard.toField(opening, size));
+            scratch.enemyMove();
+            if (scratch.getNodesSearched() >= NODE_BUDGET)
+                return; //the move may be a fallback rather than a solved one, so the real move searches instead
+            long reply = Bitboard.fromField(scratch.curFieldToString());
+            for (int symmetry = 0; symmetry < 8; symmetry++)
+            {
+                openingMoves.put(Bitboard.toField(Bitboard.transform(opening, symmetry, size), size),
+                                 Bitboard.toField(Bitboard.transform(reply, symmetry, size), size));
+            }
+            synchronized (progress)
+            {
+                progress.notifyAll();
+            }
+        }
+    }
+    
+    public static void main(String[] args) throws InterruptedException
+    {
+        long start = System.nanoTime();
+        boolean cold = args.length > 0 && args[0].equals("cold");
+        long startupDelay = (args.length > 1) ? Long.parseLong(args[1]) : 0;
+        if (!cold)
+            start();
+        Thread.sleep(startupDelay);
+        Game game = new Game(1); //computer moves first
+        if (cold)
+            game.setWarmupWait(0);
+        long moveStart = System.nanoTime();
+        game.enemyMove();
+        long end = System.nanoTime();
+        System.out.println((cold ? "Without" : "With") + " warm-up: first move after " + (end - start) / 1000000 +
+                           " ms (" + (end - moveStart) / 1000000 + " ms in enemyMove)");
+        game.setPosition(game.curFieldToString().replaceFirst("_", "O"));
+        moveStart = System.nanoTime();
+        game.enemyMove();
+        System.out.println("Second move: " + (System.nanoTime() - moveStart) / 1000000 + " ms");
+    }
+}
\ No newline at end of file
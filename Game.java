@@ -10,24 +10,50 @@
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Date;
+import java.util.Random;
+import java.io.IOException;
 
 public class Game
 {
     //Game constants
-    public static final int BOARD_SIZE = 3;
+    public static final int BOARD_SIZE = Integer.getInteger("tictactoe.boardSize", 3); //3, 4, or 5
     public static final int NUM_SQUARES = BOARD_SIZE * BOARD_SIZE; //square board
     public static final char SYMBOLS[] = {'X', 'O'};
     private static final char EMPTY_SQUARE_FILLING = '_';
-    private static final int MAX_SCORE = 1000;
-    private static final int TIE_SCORE = 0;
-    private static final int NO_WINNER_YET_SCORE = MAX_SCORE * 2;
+    public static final int MAX_SCORE = 1000;
+    public static final int TIE_SCORE = 0;
+    public static final int NO_WINNER_YET_SCORE = MAX_SCORE * 2;
     private static final int NO_WINNER_OR_TIE_YET_DEFAULT_VALUE = -1; //for the winner variable below
-    private static final int MAX_DEPTH = 9; //for the minimax algorithm, depth <= MAX_DEPTH
+    private static final int MAX_DEPTH = NUM_SQUARES; //for the minimax algorithm, depth <= MAX_DEPTH
                                             //Note: MAX_DEPTH * DEPTH_MULTIPLIER should be less than MAX_SCORE
-    private static final int MAX_NUM_POSSIBLE_MOVES = 9; //Mainly for reference, this will affect the strategies
-                                                         //for how to score moves most effectively
+    private static final int MAX_NUM_POSSIBLE_MOVES = NUM_SQUARES; //Mainly for reference, this will affect the
+                                                         //strategies for how to score moves most effectively
+    private static final int MAX_MINIMAX_BOARD_SIZE = 3; //larger boards use the proof-number solver instead
+    private static final int SOLVER_TABLE_SIZE_MB = Integer.getInteger("tictactoe.solverTableMB", 64);
+    public static final long SOLVER_NODE_BUDGET = Long.getLong("tictactoe.solverNodeBudget", 2000000);
+    public static final long SOLVER_MOVE_NODE_BUDGET = Long.getLong("tictactoe.solverMoveNodeBudget",
+                                                                    SOLVER_NODE_BUDGET); //all searches of a move
+    public static final long ANALYSIS_NODE_BUDGET = Long.getLong("tictactoe.analysisNodeBudget", SOLVER_NODE_BUDGET);
+    private static final int MAX_EXACT_VALUES = 1 << 20; //exactValues is cleared past this between analyses
+    private static final int MAX_ANALYSES = 1024; //and analyses past this
+    private static final long WARMUP_WAIT_MS = Long.getLong("tictactoe.warmupWaitMs", 5000); //see EngineWarmup
+    private static final String TABLE_TYPE = System.getProperty("tictactoe.table", "heap"); //or "offheap"
+    private static final int TABLE_SIZE_MB = Integer.getInteger("tictactoe.tableMB", 64); //off-heap table only
+    private static final OpeningBook OPENING_BOOK = OpeningBook.loadDefault(BOARD_SIZE); //null if there's none
+    //Difficulty tiers, from the weakest to perfect play (see setDifficulty)
+    public static final int EASY = 0;
+    public static final int MEDIUM = 1;
+    public static final int HARD = 2;
+    public static final int PERFECT = 3;
+    public static final String[] DIFFICULTY_NAMES = {"easy", "medium", "hard", "perfect"};
+    private static final int[] TIER_PLIES = {1, 3, 5}; //moves looked ahead
+    private static final long[] TIER_NODE_BUDGETS = {1, 1000, 20000}; //most positions expanded per move
+    private static final int[] TIER_NOISE = {500, 100, 20}; //move scores are shifted by up to this much
+    private static final int DEFAULT_DIFFICULTY = Arrays.asList(DIFFICULTY_NAMES)
+                                                        .indexOf(System.getProperty("tictactoe.difficulty", "perfect"));
     private static final int DEPTH_MULTIPLIER = MAX_SCORE / (MAX_NUM_POSSIBLE_MOVES + 1); //Multiplied by depth
                                                                                           //in score calculations
                                                                                           //for minimax (priorizes
@@ -41,10 +67,31 @@ public class Game
     private final int offset; //When players want to start with 'O', offset = 1
     private final int startingPlayerNumber; //For player vs. computer games
                                     //1 if the player goes first, 2 if the computer goes first
-    private HashMap<String, String> bestMoves; //stores the optimal moves previously found
+    private TranspositionTable bestMoves; //stores the optimal moves previously found (see tableKey)
                                                //fun facts: cut # of iterations from 39,172 -> 2821
                                                //           and time from 88 ms -> 25 ms for the first move
                                                //           (and removes the need for calculations for future moves)
+    private ArrayList<Integer> moveSquares; //squares played so far this round, in order (for the game log)
+    private ArrayList<Long> moveThinkTimes; //nanoseconds spent choosing each move in moveSquares
+    private long lastMoveTime; //System.nanoTime() when the last move finished (or the round started)
+    private GameLog gameLog; //null if finished games aren't being recorded
+    private IOException gameLogError; //the failed write that turned the log off, until takeGameLogError()
+    private HashMap<String, Integer> exactValues; //exact value of every position solved by the analysis mode
+                                                  //(see packageExactValue), shared by sibling searches
+    private HashMap<String, ArrayList<MoveAnalysis>> analyses; //finished analyses, by field
+    private ProofNumberSearch solver; //created on the first move on boards minimax can't handle
+    private long solverNodeBudget = SOLVER_NODE_BUDGET; //per yes/no search
+    private long solverMoveNodeBudget = SOLVER_MOVE_NODE_BUDGET; //per move, over all its yes/no searches
+    private long solverTimeLimit; //milliseconds per move, 0 for no limit
+    private long analysisNodeBudget = ANALYSIS_NODE_BUDGET; //per analyzePosition
+    private long warmupWait = WARMUP_WAIT_MS; //how long a move waits for a running warm-up, 0 to skip it
+    private long nodesSearched; //search statistics for the last enemyMove or analyzePosition
+    private long cacheHits;
+    private long deadPositions; //positions the search returned a tie for right away (see isDeadPosition)
+    private int difficulty = (DEFAULT_DIFFICULTY >= 0) ? DEFAULT_DIFFICULTY : PERFECT;
+    private int searchPlies; //how far the current limited search looks ahead (see findTierMove)
+    private boolean budgetExhausted; //true once the current limited search or analysis has used up its budget
+    private Random random = new Random(); //for the tiers' score noise and the opening book's choices
     
     
     //Constructors
@@ -52,11 +99,16 @@ public class Game
     public Game()
     {
         field = new char[BOARD_SIZE][BOARD_SIZE]; //default value for each element = '\0' or '\u0000'
-        bestMoves = new HashMap<String, String>();
+        bestMoves = TranspositionTable.create(TABLE_TYPE, TABLE_SIZE_MB);
         turn = 0;
         winner = NO_WINNER_OR_TIE_YET_DEFAULT_VALUE;
         offset = 0;
         startingPlayerNumber = getPlayer();
+        moveSquares = new ArrayList<Integer>();
+        moveThinkTimes = new ArrayList<Long>();
+        lastMoveTime = System.nanoTime();
+        exactValues = new HashMap<String, Integer>();
+        analyses = new HashMap<String, ArrayList<MoveAnalysis>>();
         //fillField("_X___XOO_");
     }
     
@@ -64,11 +116,16 @@ public class Game
     public Game(int offset)
     {
         field = new char[BOARD_SIZE][BOARD_SIZE]; //default value = '\0' or '\u0000'
-        bestMoves = new HashMap<String, String>();
+        bestMoves = TranspositionTable.create(TABLE_TYPE, TABLE_SIZE_MB);
         turn = 0;
         winner = NO_WINNER_OR_TIE_YET_DEFAULT_VALUE;
         this.offset = offset % 2;
         startingPlayerNumber = getPlayer();
+        moveSquares = new ArrayList<Integer>();
+        moveThinkTimes = new ArrayList<Long>();
+        lastMoveTime = System.nanoTime();
+        exactValues = new HashMap<String, Integer>();
+        analyses = new HashMap<String, ArrayList<MoveAnalysis>>();
         //fillField("_X___XOO_");
     }
     
@@ -83,12 +140,14 @@ public class Game
     {
         validateMove(r, c); //throws GameException if the move is invalid
         placePiece(r, c);
+        recordMove(r * BOARD_SIZE + c);
         int score = checkWinner();
         if (score == TIE_SCORE)
             winner = 0;
         else if (score != NO_WINNER_YET_SCORE)
             winner = getPlayer();
         incrementTurn();
+        logGameIfOver();
         return true;
     }
     
@@ -99,7 +158,30 @@ public class Game
      */
     public boolean enemyMove()
     {
-        char[][] nextMove = stringToField(findBestMove());
+        nodesSearched = 0;
+        cacheHits = 0;
+        deadPositions = 0;
+        EngineEvents.EnemyMove event = null;
+        long tableEvictions = 0, solverEvictions = 0;
+        if (EngineEvents.ENABLED)
+        {
+            event = new EngineEvents.EnemyMove();
+            event.begin();
+            tableEvictions = bestMoves.getEvictions();
+            solverEvictions = (solver == null) ? 0 : solver.getEvictions();
+        }
+        String before = curFieldToString();
+        long wait = (solverTimeLimit > 0) ? Math.min(warmupWait, solverTimeLimit) : warmupWait; //within the move's
+                                                                                                //time budget
+        if (wait > 0 && EngineWarmup.isStarted() &&
+            (OPENING_BOOK == null || !OPENING_BOOK.contains(Bitboard.fromField(before))))
+            EngineWarmup.awaitOpening(before, wait);
+        String bestMove = findBestMove();
+        int square = findChangedSquare(before, bestMove);
+        recordMove(square);
+        if (EngineEvents.ENABLED)
+            reportMove(event, before, square, tableEvictions, solverEvictions);
+        char[][] nextMove = stringToField(bestMove);
         fillField(nextMove);
         int score = checkWinner();
         if (score == TIE_SCORE)
@@ -107,9 +189,126 @@ public class Game
         else if (score != NO_WINNER_YET_SCORE)
             winner = getPlayer();
         incrementTurn();
+        logGameIfOver();
         return true;
     }
     
+    /**
+     * Commits the JFR events for a finished enemyMove search: the move itself, and the cache evictions it caused
+     * (the off-heap table is shared, so its count includes evictions by other games searching at the same time)
+     */
+    private void reportMove(EngineEvents.EnemyMove event, String before, int square, long tableEvictions,
+                            long solverEvictions)
+    {
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.board = before;
+            event.boardSize = BOARD_SIZE;
+            event.square = square;
+            event.nodes = nodesSearched;
+            event.cacheHits = cacheHits;
+            event.deadPositions = deadPositions;
+            event.commit();
+        }
+        reportEvictions("bestMoves", bestMoves.getEvictions() - tableEvictions, bestMoves.getCapacityBytes());
+        if (solver != null)
+            reportEvictions("df-pn", solver.getEvictions() - solverEvictions, solver.getTableBytes());
+    }
+    
+    private void reportEvictions(String cache, long evictions, long capacityBytes)
+    {
+        EngineEvents.CacheEviction event = new EngineEvents.CacheEviction();
+        if (evictions > 0 && event.shouldCommit())
+        {
+            event.cache = cache;
+            event.evictions = evictions;
+            event.capacityBytes = capacityBytes;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Commits a JFR event for a minimax subtree that searched at least EngineEvents.DEEP_SEARCH_NODES nodes
+     */
+    private void reportDeepSearch(String curField, int depth, long nodes, long hits)
+    {
+        if (nodes < EngineEvents.DEEP_SEARCH_NODES)
+            return;
+        EngineEvents.DeepSearch event = new EngineEvents.DeepSearch();
+        if (event.shouldCommit())
+        {
+            event.board = curField;
+            event.depth = depth;
+            event.nodes = nodes;
+            event.cacheHits = hits;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Remembers the square of the move that was just made and how long it took to choose it
+     * For the player, the think time runs from the end of the computer's move to the click
+     */
+    private void recordMove(int square)
+    {
+        long now = System.nanoTime();
+        moveSquares.add(square);
+        moveThinkTimes.add(now - lastMoveTime);
+        lastMoveTime = now;
+    }
+    
+    /**
+     * @return the index of the first square that differs between the two fields
+     *         -1 if the fields are identical
+     */
+    private int findChangedSquare(String oldField, String newField)
+    {
+        for (int i = 0; i < oldField.length(); i++)
+        {
+            if (oldField.charAt(i) != newField.charAt(i))
+                return i;
+        }
+        return -1;
+    }
+    
+    /**
+     * Appends the finished round to the game log, if there is one
+     * A write failure turns logging off for this game instead of interrupting play
+     */
+    private void logGameIfOver()
+    {
+        if (gameLog == null || winner == NO_WINNER_OR_TIE_YET_DEFAULT_VALUE)
+            return;
+        int[] squares = new int[moveSquares.size()];
+        long[] thinkTimes = new long[moveThinkTimes.size()];
+        for (int i = 0; i < squares.length; i++)
+        {
+            squares[i] = moveSquares.get(i);
+            thinkTimes[i] = moveThinkTimes.get(i);
+        }
+        try
+        {
+            gameLog.append(new GameRecord(BOARD_SIZE, startingPlayerNumber, winner, squares, thinkTimes));
+        }
+        catch (IOException e)
+        {
+            gameLogError = e;
+            gameLog = null;
+        }
+    }
+    
+    /**
+     * @return why the game log stopped recording (it's turned off after a failed write), or null if it hasn't;
+     *         each failure is only returned once
+     */
+    public IOException takeGameLogError()
+    {
+        IOException error = gameLogError;
+        gameLogError = null;
+        return error;
+    }
+    
     /**
      * Validates that the selected square can have a piece put in it
      * For tic-tac-toe, this checks that the square is empty and that r and c are in the field bounds
@@ -221,6 +420,7 @@ public class Game
      *         NO_WINNER_YET_SCORE if no one has won yet (the game is still in progress)
      */
     private int scoreBoard() {return scoreBoard(field);}
+    public int scoreField(String field) {return scoreBoard(stringToField(field));}
     private int scoreBoard(char[][] field)
     {
         int tempField[][] = new int[BOARD_SIZE][BOARD_SIZE];
@@ -280,17 +480,150 @@ public class Game
     /**
      * Returns the optimal move
      * Implements the minimax algorithm
+     * Positions in the opening book (see OpeningBook) are answered from it without any search
      */
     private String findBestMove()
     {
+        if (difficulty != PERFECT)
+            return findTierMove(fieldToString(field), turn);
+        long position = Bitboard.fromField(fieldToString(field));
+        int bookSquare = (OPENING_BOOK == null) ? -1 : OPENING_BOOK.pickMove(position, random);
+        if (bookSquare >= 0)
+        {
+            cacheHits++;
+            return Bitboard.toField(Bitboard.play(position, bookSquare), BOARD_SIZE);
+        }
+        String openingMove = EngineWarmup.lookup(fieldToString(field));
+        if (openingMove != null)
+        {
+            cacheHits++;
+            return openingMove;
+        }
+        if (BOARD_SIZE > MAX_MINIMAX_BOARD_SIZE)
+            return findSolverMove();
         return findBestMove(fieldToString(field), turn, 1);
     }
     
+    /**
+     * The move for a limited difficulty tier, on any board size: minimax that looks TIER_PLIES moves ahead and
+     * estimates the positions past that (see estimateScore), with random noise of up to TIER_NOISE added to
+     * each move's score. The search is deepened one move at a time for as long as the tier's node budget lasts,
+     * and only fully searched depths count
+     * At most TIER_NODE_BUDGETS positions are expanded per move, each scoring at most NUM_SQUARES moves, so a
+     * tier's CPU cost per move is bounded whatever the position. Limited searches don't use bestMoves, whose
+     * results would make them play perfectly
+     */
+    private String findTierMove(String curField, int curTurn)
+    {
+        nodesSearched++;
+        ArrayList<String> possibleMoves = findPossibleMoves(curField, curTurn);
+        ArrayList<Integer> possibleScores = null;
+        for (int plies = 1; plies <= TIER_PLIES[difficulty]; plies++)
+        {
+            searchPlies = plies;
+            budgetExhausted = false;
+            ArrayList<Integer> scores = assignScoresToPossibleMoves(possibleMoves, 1);
+            for (int i = 0; i < possibleMoves.size(); i++)
+            {
+                if (scores.get(i) == NO_WINNER_YET_SCORE)
+                    scores.set(i, findBestMoveScore(possibleMoves.get(i), curTurn + 1, 2));
+            }
+            if (budgetExhausted && possibleScores != null)
+                break;
+            possibleScores = scores;
+        }
+        for (int i = 0; i < possibleScores.size(); i++)
+        {
+            int noise = TIER_NOISE[difficulty];
+            possibleScores.set(i, possibleScores.get(i) + random.nextInt(2 * noise + 1) - noise);
+        }
+        if (getPlayer(curTurn) == startingPlayerNumber)
+            return possibleMoves.get(argmax(possibleScores));
+        else
+            return possibleMoves.get(argmin(possibleScores));
+    }
+    
+    /**
+     * Estimates a position that a limited search doesn't look past: each line that only one player has pieces
+     * in counts its number of pieces for that player (positive for X, like the other scores)
+     * The estimate stays far below the score of any win or loss the search finds
+     */
+    private int estimateScore(String curField)
+    {
+        long position = Bitboard.fromField(curField);
+        int estimate = 0;
+        for (int line : Bitboard.winLines(BOARD_SIZE))
+        {
+            int x = Integer.bitCount(Bitboard.xPieces(position) & line);
+            int o = Integer.bitCount(Bitboard.oPieces(position) & line);
+            if (o == 0)
+                estimate += x;
+            else if (x == 0)
+                estimate -= o;
+        }
+        return estimate;
+    }
+    
+    /**
+     * Stores a search result in bestMoves, unless it comes from a limited search (see findTierMove)
+     */
+    private void storeBestMove(String curField, int square, int score)
+    {
+        if (difficulty == PERFECT)
+            bestMoves.put(tableKey(curField), TranspositionTable.entry(square, score));
+    }
+    
+    /**
+     * Plain minimax can't finish on 4x4 and 5x5 boards, so there the move comes from the proof-number solver:
+     * it proves the value of the position and returns a move that achieves it
+     * If the node budget runs out first, the solver picks a move it couldn't prove to be losing, and if it runs
+     * out before the solver has found one (e.g. on an empty 5x5 board), the move is the threat move or else the
+     * hard tier's move, which cost next to nothing
+     */
+    private String findSolverMove()
+    {
+        if (solver == null)
+        {
+            solver = new ProofNumberSearch(BOARD_SIZE, SOLVER_TABLE_SIZE_MB);
+        }
+        solver.setNodeBudget(solverNodeBudget);
+        solver.setMoveNodeBudget(solverMoveNodeBudget);
+        solver.setTimeLimit(solverTimeLimit);
+        String curField = fieldToString(field);
+        String bestMove = solver.findBestMove(curField);
+        nodesSearched = solver.getNodesSearched();
+        deadPositions = solver.getDeadPositions();
+        if (bestMove != null)
+            return bestMove;
+        int threatSquare = findThreatMove(Bitboard.fromField(curField));
+        if (threatSquare >= 0)
+            return curField.substring(0, threatSquare) + getTurnPiece(turn) + curField.substring(threatSquare + 1);
+        int oldDifficulty = difficulty;
+        difficulty = HARD;
+        try
+        {
+            return findTierMove(curField, turn);
+        }
+        finally
+        {
+            difficulty = oldDifficulty;
+        }
+    }
+    
     private String findBestMove(String curField, int curTurn, int depth)
     {
+        nodesSearched++;
         //If you've previously run a simulation and found an optimal move for the current board, then use it
-        if (bestMoves.containsKey(curField))
-            return unpackField(bestMoves.get(curField));
+        long cached = bestMoves.get(tableKey(curField));
+        if (cached != TranspositionTable.MISSING)
+        {
+            cacheHits++;
+            int square = TranspositionTable.square(cached);
+            return curField.substring(0, square) + getTurnPiece(curTurn) + curField.substring(square + 1);
+        }
+        int threatSquare = findThreatMove(Bitboard.fromField(curField));
+        if (threatSquare >= 0)
+            return curField.substring(0, threatSquare) + getTurnPiece(curTurn) + curField.substring(threatSquare + 1);
 
         ArrayList<String> possibleMoves = findPossibleMoves(curField, curTurn);
         ArrayList<Integer> possibleScores = assignScoresToPossibleMoves(possibleMoves, depth);
@@ -323,8 +656,24 @@ public class Game
     
     private int findBestMoveScore(String curField, int curTurn, int depth)
     {
-        if (bestMoves.containsKey(curField))
-            return unpackScore(bestMoves.get(curField));
+        if (difficulty != PERFECT && (depth > searchPlies || nodesSearched >= TIER_NODE_BUDGETS[difficulty]))
+        {
+            budgetExhausted |= (depth <= searchPlies);
+            return estimateScore(curField);
+        }
+        nodesSearched++;
+        long cached = (difficulty == PERFECT) ? bestMoves.get(tableKey(curField)) : TranspositionTable.MISSING;
+        if (cached != TranspositionTable.MISSING)
+        {
+            cacheHits++;
+            return TranspositionTable.score(cached);
+        }
+        if (isDeadPosition(curField))
+            return deadPositionScore(curField, curTurn);
+        int threatScore = findThreatScore(curField, curTurn, depth);
+        if (threatScore != NO_WINNER_YET_SCORE)
+            return threatScore;
+        long startNodes = nodesSearched, startCacheHits = cacheHits;
         ArrayList<String> possibleMoves = findPossibleMoves(curField, curTurn);
         ArrayList<Integer> possibleScores = assignScoresToPossibleMoves(possibleMoves, depth);
         int winsAndTies = 0, lossesAndTies = 0;
@@ -359,26 +708,244 @@ public class Game
         System.out.println();
         */
         //System.out.println(winsAndTies + " " + lossesAndTies);
+        if (EngineEvents.ENABLED)
+            reportDeepSearch(curField, depth, nodesSearched - startNodes, cacheHits - startCacheHits);
         if (getPlayer(curTurn) == startingPlayerNumber) //your turn
         {
-            return possibleScores.get(argmax(possibleScores)) + winsAndTies;
+            int bestMovePosition = argmax(possibleScores);
+            storeBestMove(curField, findChangedSquare(curField, possibleMoves.get(bestMovePosition)),
+                          possibleScores.get(bestMovePosition) + winsAndTies);
+            return possibleScores.get(bestMovePosition) + winsAndTies;
         }   
         else //enemy's turn
         {
             int bestMovePosition = argmin(possibleScores);
             int numberOfVictories = lossesAndTies;
-            bestMoves.put(curField, packageFieldAndScore(possibleMoves.get(bestMovePosition), 
-                                                         possibleScores.get(bestMovePosition) - numberOfVictories));
+            storeBestMove(curField, findChangedSquare(curField, possibleMoves.get(bestMovePosition)),
+                          possibleScores.get(bestMovePosition) - numberOfVictories);
             return possibleScores.get(bestMovePosition) - numberOfVictories;
         }
     }
     
+    /**
+     * @return true if neither side can complete a line with the moves left, so every way the game can go from
+     *         here ends in a tie on a full board
+     */
+    private boolean isDeadPosition(String curField)
+    {
+        return Bitboard.isDeadDraw(Bitboard.fromField(curField), BOARD_SIZE);
+    }
+    
+    /**
+     * The score findBestMoveScore would work out for a dead position by searching all of it: the last move
+     * fills the board with a tie, which scores +1 when the starting player makes it (the tie counts towards
+     * winsAndTies) and -1 otherwise (lossesAndTies), and every move before it just passes that score up
+     * The best move is stored like the full search would (all moves score the same, so the first one)
+     */
+    private int deadPositionScore(String curField, int curTurn)
+    {
+        deadPositions++;
+        int lastTurn = curTurn + countEmptySquares(curField) - 1;
+        int score = (getPlayer(lastTurn) == startingPlayerNumber) ? 1 : -1;
+        storeBestMove(curField, curField.indexOf(EMPTY_SQUARE_FILLING), score);
+        return score;
+    }
+    
+    /**
+     * Immediate threat fast path: a line one piece short of completion decides the move, and the line occupancy
+     * counts find it without scoring every move (see Bitboard.winningSquares)
+     *   - the player to move can win right away: the first winning square
+     *   - the opponent threatens two or more squares (a fork): every move loses next turn, and taking the first
+     *     threatened square is the one that leaves the opponent the fewest winning moves
+     *   - the opponent threatens one square: blocking it, as every other move loses next turn
+     * These are the moves the full search would choose
+     * @return the square, -1 if no threat decides the move
+     */
+    private int findThreatMove(long position)
+    {
+        int wins = Bitboard.winningSquares(Bitboard.moverPieces(position), Bitboard.lastMoverPieces(position),
+                                           BOARD_SIZE);
+        if (wins != 0)
+            return Integer.numberOfTrailingZeros(wins);
+        int threats = Bitboard.winningSquares(Bitboard.lastMoverPieces(position), Bitboard.moverPieces(position),
+                                              BOARD_SIZE);
+        return (threats != 0) ? Integer.numberOfTrailingZeros(threats) : -1;
+    }
+    
+    /**
+     * The score findBestMoveScore would work out for a position findThreatMove decides:
+     *   - a win right away scores like any immediate win at this depth, plus one for each winning square
+     *     (winsAndTies/lossesAndTies), and no other move can score as well
+     *   - after a fork, every move is answered by a win right away, so the score is that of the reply with the
+     *     fewest winning squares left
+     *   - a single threat is blocked, and only the block is searched
+     * The move is stored like the full search would
+     * @return NO_WINNER_YET_SCORE if no threat decides the position
+     */
+    private int findThreatScore(String curField, int curTurn, int depth)
+    {
+        long position = Bitboard.fromField(curField);
+        int square = findThreatMove(position);
+        if (square < 0)
+            return NO_WINNER_YET_SCORE;
+        int wins = Bitboard.winningSquares(Bitboard.moverPieces(position), Bitboard.lastMoverPieces(position),
+                                           BOARD_SIZE);
+        int threats = Bitboard.winningSquares(Bitboard.lastMoverPieces(position), Bitboard.moverPieces(position),
+                                              BOARD_SIZE);
+        int sign = (getPlayer(curTurn) == startingPlayerNumber) ? 1 : -1;
+        int score;
+        if (wins != 0)
+            score = sign * (MAX_SCORE - DEPTH_MULTIPLIER * depth + Integer.bitCount(wins));
+        else if (Integer.bitCount(threats) >= 2)
+            score = -sign * (MAX_SCORE - DEPTH_MULTIPLIER * (depth + 1) + Integer.bitCount(threats) - 1);
+        else if (countEmptySquares(curField) >= 2) //with one square left, blocking it can tie the game instead
+            score = findBestMoveScore(curField.substring(0, square) + getTurnPiece(curTurn) +
+                                      curField.substring(square + 1), curTurn + 1, depth + 1);
+        else
+            return NO_WINNER_YET_SCORE;
+        storeBestMove(curField, square, score);
+        return score;
+    }
+    
+    private int countEmptySquares(String curField)
+    {
+        return NUM_SQUARES - Bitboard.numPieces(Bitboard.fromField(curField));
+    }
+    
+    //The analysis mode functions
+    /**
+     * Returns the exact value of every legal move in the current position, for the player whose turn it is
+     * All the moves are solved in one search: every position reached is solved once and stored in exactValues,
+     * so siblings that transpose into each other share the work
+     * Finished analyses are cached, so asking again about the same position costs nothing
+     * At most analysisNodeBudget positions are solved per call: the moves left unsolved once it's used up are
+     * reported as MoveAnalysis.UNKNOWN (on 4x4 and 5x5 boards most positions can't be solved within it)
+     */
+    public ArrayList<MoveAnalysis> analyzePosition() {return analyzePosition(curFieldToString(), turn);}
+    
+    public ArrayList<MoveAnalysis> analyzePosition(String curField, int curTurn)
+    {
+        nodesSearched = 0;
+        cacheHits = 0;
+        deadPositions = 0;
+        budgetExhausted = false;
+        if (analyses.containsKey(curField))
+            return analyses.get(curField);
+        if (exactValues.size() > MAX_EXACT_VALUES) //so it holds at most one analysis's budget more than that
+            exactValues.clear();
+        ArrayList<MoveAnalysis> analysis = new ArrayList<MoveAnalysis>();
+        if (scoreBoard(stringToField(curField)) == NO_WINNER_YET_SCORE)
+        {
+            ArrayList<String> possibleMoves = findPossibleMoves(curField, curTurn);
+            for (int i = 0; i < possibleMoves.size(); i++)
+            {
+                int square = findChangedSquare(curField, possibleMoves.get(i));
+                int value = budgetExhausted ? 0 : solveMove(possibleMoves.get(i), curTurn);
+                if (budgetExhausted)
+                    analysis.add(new MoveAnalysis(square / BOARD_SIZE, square % BOARD_SIZE, MoveAnalysis.UNKNOWN, 0));
+                else
+                    analysis.add(new MoveAnalysis(square / BOARD_SIZE, square % BOARD_SIZE,
+                                                  unpackExactResult(value), unpackExactDistance(value)));
+            }
+        }
+        if (budgetExhausted) //not cached, so asking again with a larger budget solves the rest
+            return analysis;
+        if (analyses.size() >= MAX_ANALYSES)
+            analyses.clear();
+        analyses.put(curField, analysis);
+        return analysis;
+    }
+    
+    /**
+     * Solves the position reached by a move made on turn curTurn
+     * @return the packaged exact value for the player who made the move
+     */
+    private int solveMove(String newField, int curTurn)
+    {
+        int score = scoreBoard(stringToField(newField));
+        if (score == TIE_SCORE)
+            return packageExactValue(MoveAnalysis.TIE, 1);
+        else if (score != NO_WINNER_YET_SCORE) //only the player who just moved can have completed a line
+            return packageExactValue(MoveAnalysis.WIN, 1);
+        int replyValue = solvePosition(newField, curTurn + 1);
+        return packageExactValue(-unpackExactResult(replyValue), unpackExactDistance(replyValue) + 1);
+    }
+    
+    /**
+     * Solves a position that's still in progress
+     * Once analysisNodeBudget is used up it sets budgetExhausted and returns a meaningless value, which nothing
+     * is stored for
+     * @return the packaged exact value for the player whose turn it is
+     */
+    private int solvePosition(String curField, int curTurn)
+    {
+        if (++nodesSearched > analysisNodeBudget)
+            budgetExhausted = true;
+        if (budgetExhausted)
+            return packageExactValue(MoveAnalysis.TIE, 0);
+        if (exactValues.containsKey(curField))
+        {
+            cacheHits++;
+            return exactValues.get(curField);
+        }
+        if (isDeadPosition(curField)) //a tie once every empty square is filled
+        {
+            deadPositions++;
+            return packageExactValue(MoveAnalysis.TIE, countEmptySquares(curField));
+        }
+        ArrayList<String> possibleMoves = findPossibleMoves(curField, curTurn);
+        int bestValue = solveMove(possibleMoves.get(0), curTurn);
+        for (int i = 1; i < possibleMoves.size() && !budgetExhausted; i++)
+        {
+            int value = solveMove(possibleMoves.get(i), curTurn);
+            if (isBetterExactValue(value, bestValue))
+                bestValue = value;
+        }
+        if (budgetExhausted)
+            return bestValue;
+        exactValues.put(curField, bestValue);
+        return bestValue;
+    }
+    
+    /**
+     * Wins beat ties beat losses
+     * Among wins the fastest one is better, among ties and losses the longest one is
+     */
+    private boolean isBetterExactValue(int value, int otherValue)
+    {
+        int result = unpackExactResult(value), otherResult = unpackExactResult(otherValue);
+        if (result != otherResult)
+            return result > otherResult;
+        if (result == MoveAnalysis.WIN)
+            return unpackExactDistance(value) < unpackExactDistance(otherValue);
+        return unpackExactDistance(value) > unpackExactDistance(otherValue);
+    }
+    
+    /**
+     * Packages an exact result (MoveAnalysis.WIN/TIE/LOSS) and the number of moves left into a single int
+     * For example, a win in 3 moves is stored as 2 * 64 + 3
+     */
+    private int packageExactValue(int result, int distance)
+    {
+        return (result + 1) * 64 + distance;
+    }
+    
+    private int unpackExactResult(int exactValue)
+    {
+        return exactValue / 64 - 1;
+    }
+    
+    private int unpackExactDistance(int exactValue)
+    {
+        return exactValue % 64;
+    }
+    
     /**
      * Returns a list of all possible moves
      */
     public ArrayList<String> findPossibleMoves() {return findPossibleMoves(curFieldToString(), turn);}
     
-    private ArrayList<String> findPossibleMoves(String curField, int curTurn)
+    public ArrayList<String> findPossibleMoves(String curField, int curTurn)
     {
         char piece = getTurnPiece(curTurn);
         ArrayList<String> possibleMoves = new ArrayList<String>();
@@ -530,33 +1097,12 @@ public class Game
     
     
     /**
-     * Packages a field and its respective score into a single string
-     * The field length will take up the first BOARD_SIZE * BOARD_SIZE characters
-     * The score will start at index BOARD_SIZE * BOARD_SIZE and take up the rest of the string
-     * Used for storing optimal moves in the bestMoves HashMap
-     * 
-     * Right now, this assumes that every field will be length BOARD_SIZE * BOARD_SIZE
-     * For example, if given the field "XO__" and 10, it'll return "XO__10"
+     * The bestMoves key of a field: its Bitboard position, plus the offset and the starting player in the top
+     * bits (scores depend on them, and the off-heap table is shared by every Game)
      */
-    private String packageFieldAndScore(String field, int score)
+    private long tableKey(String field)
     {
-        return field + score;
-    }
-    
-    /**
-     * Extracts the field as a String from a packaged field & score string
-     */
-    private String unpackField(String fieldAndScore)
-    {
-        return fieldAndScore.substring(0, NUM_SQUARES);
-    }
-    
-    /**
-     * Extracts the score as an int from a packaged field & score string
-     */
-    private int unpackScore(String fieldAndScore)
-    {
-        return Integer.parseInt(fieldAndScore.substring(NUM_SQUARES));
+        return Bitboard.fromField(field) | ((long)offset << 62) | ((long)(startingPlayerNumber - 1) << 63);
     }
     
     
@@ -663,13 +1209,44 @@ public class Game
         fillField(emptyField);
     }
     
+    /**
+     * Sets up an arbitrary position (in the field string format, e.g. "X___O____")
+     * Whose turn it is follows from the number of pieces, since X always moves first
+     */
+    public void setPosition(String newField)
+    {
+        fillField(newField);
+        turn = 0;
+        for (int i = 0; i < newField.length(); i++)
+        {
+            if (newField.charAt(i) != EMPTY_SQUARE_FILLING)
+                turn++;
+        }
+        int score = checkWinner();
+        if (score == TIE_SCORE)
+            winner = 0;
+        else if (score != NO_WINNER_YET_SCORE)
+            winner = getPlayer(turn - 1);
+        else
+            winner = NO_WINNER_OR_TIE_YET_DEFAULT_VALUE;
+        moveSquares.clear();
+        moveThinkTimes.clear();
+        lastMoveTime = System.nanoTime();
+    }
+    
+    /**
+     * Starts a new round on an empty board
+     * When the computer starts (getStartingPlayerNumber() == 2), its first move is left to the caller, like on
+     * a new Game (GameGUI hands it to MoveScheduler)
+     */
     public void resetGame()
     {
         resetField();
         winner = NO_WINNER_OR_TIE_YET_DEFAULT_VALUE;
         turn = 0;
-        if (startingPlayerNumber == 2) //computer starts
-            enemyMove();
+        moveSquares.clear();
+        moveThinkTimes.clear();
+        lastMoveTime = System.nanoTime();
     }
     
     /**
@@ -688,6 +1265,36 @@ public class Game
     public int getPlayer(int turn) {return (turn + offset)%2 + 1;} //Returns the given player's index
                                                                    //1 = player, 2 = computer
     public int getStartingPlayerNumber() {return startingPlayerNumber;}
+    public ArrayList<Integer> getMoveSquares() {return moveSquares;}
+    public void setGameLog(GameLog gameLog) {this.gameLog = gameLog;}
+    public long getNodesSearched() {return nodesSearched;}
+    public long getCacheHits() {return cacheHits;}
+    public long getDeadPositions() {return deadPositions;}
+    public long getSolverNodeBudget() {return solverNodeBudget;}
+    public long getSolverMoveNodeBudget() {return solverMoveNodeBudget;}
+    public long getSolverTimeLimit() {return solverTimeLimit;}
+    public long getAnalysisNodeBudget() {return analysisNodeBudget;}
+    public void setSolverNodeBudget(long solverNodeBudget) {this.solverNodeBudget = solverNodeBudget;}
+    public void setSolverMoveNodeBudget(long solverMoveNodeBudget) {this.solverMoveNodeBudget = solverMoveNodeBudget;}
+    public void setSolverTimeLimit(long solverTimeLimit) {this.solverTimeLimit = solverTimeLimit;}
+    public void setAnalysisNodeBudget(long analysisNodeBudget) {this.analysisNodeBudget = analysisNodeBudget;}
+    public void setWarmupWait(long warmupWait) {this.warmupWait = warmupWait;}
+    public int getDifficulty() {return difficulty;}
+    
+    /**
+     * Sets how well the computer plays: EASY, MEDIUM, or HARD for a limited search (see findTierMove), or
+     * PERFECT for the full search (the default, or -Dtictactoe.difficulty=easy|medium|hard|perfect)
+     */
+    public void setDifficulty(int difficulty) {this.difficulty = difficulty;}
+    
+    /**
+     * @return the most positions a tier's search expands per move (Long.MAX_VALUE for PERFECT, whose searches
+     *         are only limited by the solver's node budget on 4x4 and 5x5 boards)
+     */
+    public static long getTierNodeBudget(int difficulty)
+    {
+        return (difficulty == PERFECT) ? Long.MAX_VALUE : TIER_NODE_BUDGETS[difficulty];
+    }
     private void incrementTurn() {turn++;}
     
     
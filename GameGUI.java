@@ -2,16 +2,40 @@ import java.util.Date; //For figuring out time required for different tasks
 import java.awt.event.*;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList; //For testing purposes only
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 public class GameGUI extends JPanel implements MouseListener
 {
     //Game constants
-    private static JFrame frame = new JFrame("Tic Tac Toe");
+    private static JFrame frame; //null when running without a screen (see paintOffscreen)
     private static Game game;
     private static final int NUM_ROWS = Game.BOARD_SIZE, NUM_COLS = Game.BOARD_SIZE;
     private static int numRounds;
     private static int numLosses;
+    private static GameLog gameLog; //set when the tictactoe.gameLog system property names a log file
+    private static boolean showHeatmap; //toggled with the H key
+    private static ArrayList<MoveAnalysis> heatmap; //the last finished heatmap analysis (see requestHeatmap)
+    private static String heatmapField; //the field heatmap is for
+    private static volatile String requestedHeatmapField; //the field of the last analysis handed to heatmapThread
+    private static final ExecutorService heatmapThread = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "heatmap");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static Game heatmapGame; //scratch game and solver, only used on heatmapThread
+    private static ProofNumberSearch heatmapSolver;
+    private static EngineEvents.ClickRepaint pendingClick; //JFR event of the click waiting for its repaint
+    private static boolean repaintRequested; //without a screen: a repaint is waiting for paintOffscreen
+    private static Notifier notifier = new DialogNotifier();
+    private static boolean computerMoving; //the computer's move is with MoveScheduler (clicks are ignored)
+    private static CompletableFuture<Void> idle = CompletableFuture.completedFuture(null); //see whenIdle
     
     
     
@@ -34,11 +58,43 @@ public class GameGUI extends JPanel implements MouseListener
     private static final Color CLICKED_SQUARE_COLOR = Color.YELLOW;
     private static final int NUMBER_BUFFER_ZONE_X = LETTER_BUFFER_ZONE_X + LETTER_SIZE_X/2 - 15;
     private static final int NUMBER_BUFFER_ZONE_Y = 13;
+    private static final Color WIN_SQUARE_COLOR = new Color(0, 200, 0, 90); //heatmap colors (translucent)
+    private static final Color TIE_SQUARE_COLOR = new Color(230, 200, 0, 90);
+    private static final Color LOSS_SQUARE_COLOR = new Color(220, 0, 0, 90);
+    private static final int MAX_EXACT_HEATMAP_SIZE = 3; //the exact analysis only fits in memory on 3x3
+    private static final long HEATMAP_NODE_BUDGET = 200000; //per yes/no search on larger boards
+    private static final int HEATMAP_TABLE_SIZE_MB = 16;
+    private static final long MOVE_DEADLINE_MS = Long.getLong("tictactoe.moveDeadlineMs", 3000); //for MoveScheduler
+    private static final int MOVE_RETRY_MS = 50; //before asking again when MoveScheduler's queue is full
     
     
+    /**
+     * Shows the game's messages and questions to the player
+     * The default one uses JOptionPane dialogs, which wait for a click, so runs without a player replace it
+     * (see setNotifier)
+     */
+    public interface Notifier
+    {
+        void showMessage(String message, String title, int messageType); //messageType: a JOptionPane constant
+        boolean askYesNo(String message, String title);
+    }
+    
+    private static class DialogNotifier implements Notifier
+    {
+        public void showMessage(String message, String title, int messageType)
+        {
+            JOptionPane.showMessageDialog(null, message, title, messageType);
+        }
+        
+        public boolean askYesNo(String message, String title)
+        {
+            return JOptionPane.showConfirmDialog(null, message, title, JOptionPane.YES_NO_OPTION) == 0;
+        }
+    }
+    
     public GameGUI()
     {
-        frame.repaint();
+        repaintBoard();
     }
     
     public void play()
@@ -55,20 +111,67 @@ public class GameGUI extends JPanel implements MouseListener
         }
         initialize(offset);
         if (game.getStartingPlayerNumber() == 2) //computer starts
-            game.enemyMove();
+            startComputerMove();
     }
     
     private void initialize(int offset)
     {
         game = new Game(offset);
+        openGameLog();
+        addMouseListener(this);
+        numRounds = 1;
+        numLosses = 0;
+        if (GraphicsEnvironment.isHeadless()) //clicks come from dispatchEvent and paintOffscreen draws the board
+            return;
+        frame = new JFrame("Tic Tac Toe");
         frame.setSize(BOARD_SIZE_PIXELS, BOARD_SIZE_PIXELS);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.add(new GameGUI());
         frame.setVisible(true);
         frame.addMouseListener(this);
-        addMouseListener(this);
-        numRounds = 1;
-        numLosses = 0;
+        frame.addKeyListener(new KeyAdapter() {
+            public void keyPressed(KeyEvent ke)
+            {
+                if (ke.getKeyCode() == KeyEvent.VK_H)
+                {
+                    showHeatmap = !showHeatmap;
+                    frame.repaint();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Records every finished round to the file named by the tictactoe.gameLog system property, if it's set
+     * The log is flushed when the program exits
+     */
+    private void openGameLog()
+    {
+        String path = System.getProperty("tictactoe.gameLog");
+        if (path == null)
+            return;
+        try
+        {
+            gameLog = new GameLog(new File(path));
+            game.setGameLog(gameLog);
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run()
+                {
+                    try
+                    {
+                        gameLog.close();
+                    }
+                    catch (IOException e)
+                    {
+                        System.out.println("Could not close the game log: " + e.getMessage());
+                    }
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            displayErrorNotification("Could not open the game log " + path + ": " + e.getMessage(), "Error");
+        }
     }
     
     /**
@@ -95,8 +198,10 @@ public class GameGUI extends JPanel implements MouseListener
         if (displayYesNoNotification("Would you like to play again?", "Play Again?"))
         {
             game.resetGame();
-            frame.repaint();
+            repaintBoard();
             numRounds++;
+            if (game.getStartingPlayerNumber() == 2) //computer starts
+                startComputerMove();
         }
         else
         {
@@ -192,7 +297,7 @@ public class GameGUI extends JPanel implements MouseListener
         //JOptionPane.showOptionDialog(null, message, title,
         //    JOptionPane.DEFAULT_OPTION, JOptionPane.WARNING_MESSAGE, 
         //    null, options, options[0]);
-        JOptionPane.showMessageDialog(null, message, title, JOptionPane.INFORMATION_MESSAGE);
+        notifier.showMessage(message, title, JOptionPane.INFORMATION_MESSAGE);
     }
     
     /**
@@ -201,7 +306,7 @@ public class GameGUI extends JPanel implements MouseListener
      */
     private void displayErrorNotification(String message, String title)
     {
-        JOptionPane.showMessageDialog(null, message, title, JOptionPane.ERROR_MESSAGE);
+        notifier.showMessage(message, title, JOptionPane.ERROR_MESSAGE);
     }
     
     
@@ -214,9 +319,57 @@ public class GameGUI extends JPanel implements MouseListener
      */
     private boolean displayYesNoNotification(String message, String title)
     {
-        return JOptionPane.showConfirmDialog(null, message, title, JOptionPane.YES_NO_OPTION) == 0;
+        return notifier.askYesNo(message, title);
+    }
+    
+    /**
+     * Asks for the board to be repainted
+     * On screen the frame repaints on the event thread once the current event has been handled (so requests
+     * made while handling one click give a single repaint); without a screen the next paintOffscreen does it
+     */
+    private static void repaintBoard()
+    {
+        if (frame != null)
+            frame.repaint();
+        else
+            repaintRequested = true;
+    }
+    
+    /**
+     * Runs the repaint that's been asked for since the last call, if any, into an image instead of a window
+     * @return true if there was a repaint to run
+     */
+    public boolean paintOffscreen(BufferedImage image)
+    {
+        if (!repaintRequested)
+            return false;
+        repaintRequested = false;
+        Graphics2D pen = image.createGraphics();
+        paintComponent(pen);
+        pen.dispose();
+        return true;
     }
     
+    /**
+     * @return where a click in the middle of the square lands, in the frame coordinates mouseClicked takes
+     */
+    public Point getClickPoint(int row, int col)
+    {
+        return new Point(coltox(col) + SQUARE_SIZE_X / 2 + EXTRA_ROOM_X,
+                         rowtoy(row) + SQUARE_SIZE_Y / 2 + EXTRA_ROOM_Y);
+    }
+    
+    public Game getGame() {return game;}
+    public static boolean isComputerMoving() {return computerMoving;}
+    
+    /**
+     * Called on the event thread
+     * @return a future that completes (on the event thread) once no computer move is waiting for MoveScheduler
+     *         and the end-of-round dialogs it led to have been answered
+     */
+    public static CompletableFuture<Void> whenIdle() {return idle;}
+    public static void setNotifier(Notifier notifier) {GameGUI.notifier = notifier;}
+    
     
     
     
@@ -226,6 +379,9 @@ public class GameGUI extends JPanel implements MouseListener
     {
         Graphics2D pen = (Graphics2D)g;
         
+        if (showHeatmap && game.getWinner() == -1)
+            paintHeatmap(pen);
+        
         pen.setColor(Color.BLACK);
         for (int i = 0; i <= NUM_ROWS; i++)
         {
@@ -263,19 +419,129 @@ public class GameGUI extends JPanel implements MouseListener
                 }
             }
         }
+        
+        if (EngineEvents.ENABLED && pendingClick != null && !computerMoving)
+        {
+            pendingClick.end();
+            pendingClick.gameOver = game.getWinner() != -1;
+            pendingClick.commit();
+            pendingClick = null;
+        }
+    }
+    
+    /**
+     * Colors every empty square by the exact value of playing there (from the point of view of the player
+     * whose turn it is) and writes how many moves the game would last, e.g. "W 3" = win in 3 moves
+     * The analysis runs on heatmapThread, so until it's done for the current position nothing is drawn
+     */
+    private void paintHeatmap(Graphics2D pen)
+    {
+        String field = game.curFieldToString();
+        if (!field.equals(heatmapField))
+        {
+            requestHeatmap(field);
+            return;
+        }
+        for (int i = 0; i < heatmap.size(); i++)
+        {
+            MoveAnalysis move = heatmap.get(i);
+            if (move.getResult() == MoveAnalysis.UNKNOWN) //left blank, like the solver's unsettled moves
+                continue;
+            if (move.getResult() == MoveAnalysis.WIN)
+                pen.setColor(WIN_SQUARE_COLOR);
+            else if (move.getResult() == MoveAnalysis.TIE)
+                pen.setColor(TIE_SQUARE_COLOR);
+            else
+                pen.setColor(LOSS_SQUARE_COLOR);
+            pen.fillRect(coltox(move.getCol()), rowtoy(move.getRow()), SQUARE_SIZE_X, SQUARE_SIZE_Y);
+            pen.setColor(Color.BLACK);
+            pen.drawString("WTL".charAt(1 - move.getResult()) +
+                           ((move.getMovesToEnd() > 0) ? " " + move.getMovesToEnd() : ""),
+                           coltox(move.getCol()) + NUMBER_BUFFER_ZONE_X + 10, 
+                           rowtoy(move.getRow()) + SQUARE_SIZE_Y - NUMBER_BUFFER_ZONE_Y);
+        }
+    }
+    
+    /**
+     * Starts the heatmap analysis of the field on heatmapThread (unless it's already been started), and repaints
+     * once it's done, so the solve never holds up the event thread
+     * Analyses still waiting for the thread are dropped once a newer field has been asked for
+     */
+    private static void requestHeatmap(String field)
+    {
+        if (field.equals(requestedHeatmapField))
+            return;
+        requestedHeatmapField = field;
+        heatmapThread.execute(new Runnable() {
+            public void run()
+            {
+                if (!field.equals(requestedHeatmapField))
+                    return; //the game has moved on since this was asked for
+                ArrayList<MoveAnalysis> analysis = analyzeForHeatmap(field);
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run()
+                    {
+                        heatmap = analysis;
+                        heatmapField = field;
+                        repaintBoard();
+                    }
+                });
+            }
+        });
+    }
+    
+    /**
+     * Runs on heatmapThread. On 3x3 the analysis is exact (Game.analyzePosition), on larger boards each move is
+     * solved by the proof-number solver within HEATMAP_NODE_BUDGET: those moves get no distance (movesToEnd 0),
+     * and moves it can't settle are left out
+     */
+    private static ArrayList<MoveAnalysis> analyzeForHeatmap(String field)
+    {
+        if (NUM_ROWS <= MAX_EXACT_HEATMAP_SIZE)
+        {
+            if (heatmapGame == null)
+                heatmapGame = new Game();
+            heatmapGame.setPosition(field);
+            return heatmapGame.analyzePosition();
+        }
+        if (heatmapSolver == null)
+        {
+            heatmapSolver = new ProofNumberSearch(NUM_ROWS, HEATMAP_TABLE_SIZE_MB);
+            heatmapSolver.setNodeBudget(HEATMAP_NODE_BUDGET);
+        }
+        ArrayList<MoveAnalysis> analysis = new ArrayList<MoveAnalysis>();
+        long position = Bitboard.fromField(field);
+        for (int square = 0; square < NUM_ROWS * NUM_COLS; square++)
+        {
+            if ((Bitboard.occupied(position) & (1 << square)) != 0)
+                continue;
+            int result = heatmapSolver.solve(Bitboard.play(position, square)); //for the opponent
+            if (result != ProofNumberSearch.UNKNOWN)
+                analysis.add(new MoveAnalysis(square / NUM_COLS, square % NUM_COLS, -result, 0));
+        }
+        return analysis;
     }
     
     public void mouseClicked(MouseEvent me)
     {
         if (me != null && xtocol(me.getX()-EXTRA_ROOM_X) != -1 && ytorow(me.getY()-EXTRA_ROOM_Y) != -1)
         {
+            if (computerMoving) //the game is with MoveScheduler until the computer's move is in
+                return;
+            if (EngineEvents.ENABLED)
+            {
+                pendingClick = new EngineEvents.ClickRepaint();
+                pendingClick.begin();
+                pendingClick.square = ytorow(me.getY()-EXTRA_ROOM_Y) * NUM_COLS + xtocol(me.getX()-EXTRA_ROOM_X);
+            }
             try
             {
                 game.playerMove(ytorow(me.getY()-EXTRA_ROOM_Y), xtocol(me.getX()-EXTRA_ROOM_X));
-                frame.repaint();
+                repaintBoard();
                 if (game.getWinner() == -1)
-                    game.enemyMove();
-                frame.repaint();
+                    startComputerMove(); //finishTurn runs once the move is in
+                else
+                    finishTurn();
                 //Old code (before having the computer's first move when the computer is player 1 got executed
                 //in this class' play(int offset) method and the Game class' resetGame() method
                 /*
@@ -296,16 +562,6 @@ public class GameGUI extends JPanel implements MouseListener
                     frame.repaint();
                 }
                 */
-                
-                //Message if someone wins/if there was a tie
-                if (game.getWinner() == 0)
-                {
-                    closeTie();
-                }
-                else if (game.getWinner() != -1)
-                {
-                    closeWinner();
-                }
             }
             catch(GameException e)
             {
@@ -314,6 +570,68 @@ public class GameGUI extends JPanel implements MouseListener
         }
     }
     
+    /**
+     * Hands the computer's move to the shared MoveScheduler and returns right away, so the window keeps
+     * painting while the engine searches. The move has MOVE_DEADLINE_MS to arrive, after which the scheduler
+     * cuts the search short; clicks are ignored until finishComputerMove has run on the event thread
+     */
+    private void startComputerMove()
+    {
+        if (!computerMoving)
+        {
+            computerMoving = true;
+            if (idle.isDone())
+                idle = new CompletableFuture<Void>();
+        }
+        CompletableFuture<String> move = MoveScheduler.shared().submit(game, MoveScheduler.PRIORITY_INTERACTIVE,
+                                                                       MOVE_DEADLINE_MS);
+        move.whenComplete((field, error) -> SwingUtilities.invokeLater(() -> finishComputerMove(error)));
+    }
+    
+    /**
+     * Runs on the event thread once MoveScheduler is done with the computer's move
+     */
+    private void finishComputerMove(Throwable error)
+    {
+        if (error instanceof RejectedExecutionException) //the scheduler is overloaded: ask again shortly
+        {
+            Timer retry = new Timer(MOVE_RETRY_MS, ae -> startComputerMove());
+            retry.setRepeats(false);
+            retry.start();
+            return;
+        }
+        computerMoving = false;
+        if (error != null)
+            displayErrorNotification("The computer couldn't move: " + error.getMessage(), "Error");
+        else if (EngineEvents.ENABLED && pendingClick != null)
+            pendingClick.computerMoved = true;
+        finishTurn();
+        if (!computerMoving) //unless a new round has started with the computer's move
+            idle.complete(null);
+    }
+    
+    /**
+     * Shows the board after a move and, if the game is over, the end-of-round messages
+     */
+    private void finishTurn()
+    {
+        repaintBoard();
+        IOException logError = game.takeGameLogError(); //finished games are logged as they end
+        if (logError != null)
+            displayErrorNotification("Could not write to the game log, logging disabled: " +
+                                     logError.getMessage(), "Error");
+        
+        //Message if someone wins/if there was a tie
+        if (game.getWinner() == 0)
+        {
+            closeTie();
+        }
+        else if (game.getWinner() != -1)
+        {
+            closeWinner();
+        }
+    }
+    
     public void mouseEntered(MouseEvent me)
     {
         
@@ -0,0 +1,59 @@
+/**
+ * Append-only binary log of finished games
+ *
+ * Records (see GameRecord) are collected in a direct buffer and written to the end of the file through a
+ * FileChannel once the buffer fills up, so a game only costs a memory copy until then
+ * The file is just a sequence of fixed-size records with no header, so logs can be concatenated with cat
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+public class GameLog implements Closeable
+{
+    private static final int RECORDS_PER_BUFFER = 256; //~33 KB per write
+    
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    
+    public GameLog(File file) throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.APPEND);
+        buffer = ByteBuffer.allocateDirect(GameRecord.RECORD_SIZE * RECORDS_PER_BUFFER);
+    }
+    
+    /**
+     * Adds a game to the log
+     * The record reaches the file when the buffer fills up or when flush()/close() is called
+     */
+    public synchronized void append(GameRecord record) throws IOException
+    {
+        if (buffer.remaining() < GameRecord.RECORD_SIZE)
+            flush();
+        record.writeTo(buffer);
+    }
+    
+    /**
+     * Writes every buffered record to the file
+     */
+    public synchronized void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    public synchronized void close() throws IOException
+    {
+        flush();
+        channel.close();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,202 @@
+/**
+ * Computes aggregate statistics over a GameLog file
+ *
+ * The log is never read into the heap as a whole: it's cut into chunks of whole records, each chunk is memory
+ * mapped on its own and the chunks are summarized in parallel, then the partial statistics are merged
+ * This keeps memory use at (number of threads) * CHUNK_RECORDS records no matter how big the log gets
+ *
+ * Usage: java GameLogAnalyzer <log file> [number of loss positions to show]
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+public class GameLogAnalyzer
+{
+    private static final int CHUNK_RECORDS = 1 << 15; //~4 MB mapped per chunk
+    private static final int MAX_BOARD_SIZE = 5;
+    private static final int NUM_LATENCY_BUCKETS = 32; //bucket i holds think times in [2^(i-1), 2^i) microseconds
+    
+    /**
+     * Partial (and, after merging, final) statistics for a set of games
+     */
+    public static class Stats
+    {
+        private long numGames;
+        private final long[][] results = new long[MAX_BOARD_SIZE + 1][3]; //[board size][tie/player/computer]
+        private final long[][] firstMoves = new long[MAX_BOARD_SIZE + 1][GameRecord.MAX_MOVES];
+        private final HashMap<String, Long> openings = new HashMap<String, Long>(); //first two moves
+        private final HashMap<String, Long> lossPositions = new HashMap<String, Long>(); //field the computer
+                                                                                         //left before losing
+        private final long[][] latencies = new long[3][NUM_LATENCY_BUCKETS]; //[player number][bucket]
+        
+        public void add(GameRecord record)
+        {
+            if (record == null || !record.isValid())
+                return; //corrupt record
+            int size = record.getBoardSize();
+            numGames++;
+            results[size][record.getResult()]++;
+            if (record.getNumMoves() > 0)
+                firstMoves[size][record.getSquare(0)]++;
+            if (record.getNumMoves() > 1)
+                openings.merge(size + ":" + record.fieldAfter(2), 1L, Long::sum);
+            if (record.getResult() == 1 && record.getNumMoves() > 1)
+                lossPositions.merge(record.fieldAfter(record.getNumMoves() - 1), 1L, Long::sum);
+            for (int i = 0; i < record.getNumMoves(); i++)
+            {
+                int bucket = 32 - Integer.numberOfLeadingZeros(Math.max(record.getThinkTimeMicros(i), 0));
+                latencies[record.getMovingPlayer(i)][Math.min(bucket, NUM_LATENCY_BUCKETS - 1)]++;
+            }
+        }
+        
+        public void combine(Stats other)
+        {
+            numGames += other.numGames;
+            for (int i = 0; i <= MAX_BOARD_SIZE; i++)
+            {
+                for (int j = 0; j < 3; j++)
+                    results[i][j] += other.results[i][j];
+                for (int j = 0; j < GameRecord.MAX_MOVES; j++)
+                    firstMoves[i][j] += other.firstMoves[i][j];
+            }
+            for (Map.Entry<String, Long> e : other.openings.entrySet())
+                openings.merge(e.getKey(), e.getValue(), Long::sum);
+            for (Map.Entry<String, Long> e : other.lossPositions.entrySet())
+                lossPositions.merge(e.getKey(), e.getValue(), Long::sum);
+            for (int i = 0; i < 3; i++)
+            {
+                for (int j = 0; j < NUM_LATENCY_BUCKETS; j++)
+                    latencies[i][j] += other.latencies[i][j];
+            }
+        }
+        
+        /**
+         * @return the upper bound (in microseconds) of the bucket holding the given percentile
+         *         0 if the player has no recorded moves
+         */
+        public long latencyPercentile(int playerNumber, double percentile)
+        {
+            long total = 0;
+            for (long n : latencies[playerNumber])
+                total += n;
+            long target = (long)Math.ceil(total * percentile / 100), seen = 0;
+            for (int i = 0; i < NUM_LATENCY_BUCKETS && total > 0; i++)
+            {
+                seen += latencies[playerNumber][i];
+                if (seen >= target)
+                    return 1L << i;
+            }
+            return 0;
+        }
+        
+        public long getNumGames() {return numGames;}
+        public long getResultCount(int boardSize, int result) {return results[boardSize][result];}
+        public long getFirstMoveCount(int boardSize, int square) {return firstMoves[boardSize][square];}
+        public Map<String, Long> getOpenings() {return openings;}
+        public Map<String, Long> getLossPositions() {return lossPositions;}
+    }
+    
+    /**
+     * Streams every record of the log through the statistics, one mapped chunk at a time
+     */
+    public static Stats analyze(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long numRecords = channel.size() / GameRecord.RECORD_SIZE; //ignores a partially written last record
+            long numChunks = (numRecords + CHUNK_RECORDS - 1) / CHUNK_RECORDS;
+            return LongStream.range(0, numChunks).parallel()
+                             .collect(Stats::new,
+                                      (stats, chunk) -> analyzeChunk(channel, chunk, numRecords, stats),
+                                      Stats::combine);
+        }
+    }
+    
+    private static void analyzeChunk(FileChannel channel, long chunk, long numRecords, Stats stats)
+    {
+        long firstRecord = chunk * CHUNK_RECORDS;
+        int chunkRecords = (int)Math.min(CHUNK_RECORDS, numRecords - firstRecord);
+        try
+        {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, firstRecord * GameRecord.RECORD_SIZE,
+                                            (long)chunkRecords * GameRecord.RECORD_SIZE);
+            for (int i = 0; i < chunkRecords; i++)
+            {
+                stats.add(GameRecord.readFrom(buffer, i * GameRecord.RECORD_SIZE));
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * @return the n keys with the highest counts, highest first
+     */
+    private static ArrayList<Map.Entry<String, Long>> top(Map<String, Long> counts, int n)
+    {
+        ArrayList<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(counts.entrySet());
+        Collections.sort(entries, Map.Entry.<String, Long>comparingByValue().reversed());
+        return new ArrayList<Map.Entry<String, Long>>(entries.subList(0, Math.min(n, entries.size())));
+    }
+    
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: java GameLogAnalyzer <log file> [number of loss positions to show]");
+            return;
+        }
+        int numToShow = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        long start = System.nanoTime();
+        Stats stats = analyze(new File(args[0]));
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        System.out.println(stats.getNumGames() + " games analyzed in " + elapsed + " ms");
+        
+        for (int size = 3; size <= MAX_BOARD_SIZE; size++)
+        {
+            long games = stats.getResultCount(size, 0) + stats.getResultCount(size, 1) + stats.getResultCount(size, 2);
+            if (games == 0)
+                continue;
+            System.out.println("\n" + size + "x" + size + ": " + games + " games, " +
+                               stats.getResultCount(size, 1) + " player wins, " +
+                               stats.getResultCount(size, 2) + " computer wins, " +
+                               stats.getResultCount(size, 0) + " ties");
+            System.out.println("First move frequencies:");
+            for (int r = 0; r < size; r++)
+            {
+                for (int c = 0; c < size; c++)
+                    System.out.print(String.format("%10d", stats.getFirstMoveCount(size, r * size + c)));
+                System.out.println();
+            }
+        }
+        
+        System.out.println("\nMost common openings (first two moves):");
+        for (Map.Entry<String, Long> e : top(stats.getOpenings(), numToShow))
+            System.out.println("\t" + e.getKey() + "\t" + e.getValue());
+        System.out.println("Most common positions the computer lost from:");
+        for (Map.Entry<String, Long> e : top(stats.getLossPositions(), numToShow))
+            System.out.println("\t" + e.getKey() + "\t" + e.getValue());
+        
+        System.out.println("\nThink time percentiles (microseconds, power-of-two buckets):");
+        String[] names = {"", "Player", "Computer"};
+        for (int player = 1; player <= 2; player++)
+        {
+            System.out.println("\t" + names[player] + ": p50 <= " + stats.latencyPercentile(player, 50) +
+                               ", p90 <= " + stats.latencyPercentile(player, 90) +
+                               ", p99 <= " + stats.latencyPercentile(player, 99) +
+                               ", max <= " + stats.latencyPercentile(player, 100));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,139 @@
+/**
+ * One finished game, as stored in the GameLog
+ *
+ * Every record takes up exactly RECORD_SIZE bytes so the log can be split and read at any record boundary:
+ *   byte  board size
+ *   byte  starting player number (1 = player, 2 = computer)
+ *   byte  result (0 = tie, 1 = player won, 2 = computer won)
+ *   byte  number of moves
+ *   byte  square of each move (row * boardSize + col), MAX_MOVES of them, unused ones are -1
+ *   3 bytes of padding (keeps the think times 4-byte aligned)
+ *   int   think time of each move in microseconds, MAX_MOVES of them, unused ones are 0
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class GameRecord
+{
+    public static final int MAX_MOVES = 25; //enough for a 5x5 board
+    public static final int MOVES_OFFSET = 4;
+    public static final int THINK_TIMES_OFFSET = MOVES_OFFSET + MAX_MOVES + 3;
+    public static final int RECORD_SIZE = THINK_TIMES_OFFSET + MAX_MOVES * 4; //132 bytes
+    
+    private final int boardSize;
+    private final int startingPlayerNumber;
+    private final int result;
+    private final int[] squares;
+    private final int[] thinkTimesMicros;
+    
+    /**
+     * @param thinkTimesNanos - the time spent choosing each move, in nanoseconds
+     *                          (stored with microsecond precision)
+     */
+    public GameRecord(int boardSize, int startingPlayerNumber, int result, int[] squares, long[] thinkTimesNanos)
+    {
+        if (squares.length > MAX_MOVES)
+            throw new IllegalArgumentException("A game record can hold at most " + MAX_MOVES + " moves");
+        this.boardSize = boardSize;
+        this.startingPlayerNumber = startingPlayerNumber;
+        this.result = result;
+        this.squares = squares.clone();
+        thinkTimesMicros = new int[squares.length];
+        for (int i = 0; i < squares.length; i++)
+        {
+            thinkTimesMicros[i] = (int)Math.min(Integer.MAX_VALUE, thinkTimesNanos[i] / 1000);
+        }
+    }
+    
+    private GameRecord(int boardSize, int startingPlayerNumber, int result, int[] squares, int[] thinkTimesMicros)
+    {
+        this.boardSize = boardSize;
+        this.startingPlayerNumber = startingPlayerNumber;
+        this.result = result;
+        this.squares = squares;
+        this.thinkTimesMicros = thinkTimesMicros;
+    }
+    
+    /**
+     * Writes this record at the buffer's current position, advancing it by RECORD_SIZE
+     */
+    public void writeTo(ByteBuffer buffer)
+    {
+        buffer.put((byte)boardSize);
+        buffer.put((byte)startingPlayerNumber);
+        buffer.put((byte)result);
+        buffer.put((byte)squares.length);
+        for (int i = 0; i < MAX_MOVES; i++)
+        {
+            buffer.put((byte)(i < squares.length ? squares[i] : -1));
+        }
+        buffer.put((byte)0).put((byte)0).put((byte)0);
+        for (int i = 0; i < MAX_MOVES; i++)
+        {
+            buffer.putInt(i < thinkTimesMicros.length ? thinkTimesMicros[i] : 0);
+        }
+    }
+    
+    /**
+     * Reads the record starting at the given absolute position (doesn't move the buffer's position)
+     * @return null if the stored move count is out of range (a corrupt record)
+     */
+    public static GameRecord readFrom(ByteBuffer buffer, int position)
+    {
+        int numMoves = buffer.get(position + 3);
+        if (numMoves < 0 || numMoves > MAX_MOVES)
+            return null;
+        int[] squares = new int[numMoves];
+        int[] thinkTimesMicros = new int[numMoves];
+        for (int i = 0; i < numMoves; i++)
+        {
+            squares[i] = buffer.get(position + MOVES_OFFSET + i);
+            thinkTimesMicros[i] = buffer.getInt(position + THINK_TIMES_OFFSET + 4 * i);
+        }
+        return new GameRecord(buffer.get(position), buffer.get(position + 1), buffer.get(position + 2),
+                              squares, thinkTimesMicros);
+    }
+    
+    /**
+     * @return false if the record can't be a real game (e.g. one read from a corrupt log): a header value out of
+     *         range, more moves than squares, or a move off the board
+     */
+    public boolean isValid()
+    {
+        if (boardSize < 1 || boardSize > Bitboard.MAX_BOARD_SIZE || startingPlayerNumber < 1 ||
+            startingPlayerNumber > 2 || result < 0 || result > 2 || squares.length > boardSize * boardSize)
+            return false;
+        for (int square : squares)
+        {
+            if (square < 0 || square >= boardSize * boardSize)
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * @return the field after the first numMoves moves, in the same string format Game uses
+     */
+    public String fieldAfter(int numMoves)
+    {
+        char[] field = new char[boardSize * boardSize];
+        Arrays.fill(field, '_');
+        for (int i = 0; i < numMoves && i < squares.length; i++)
+        {
+            field[squares[i]] = Game.SYMBOLS[i % 2];
+        }
+        return new String(field);
+    }
+    
+    /**
+     * Getters
+     */
+    public int getBoardSize() {return boardSize;}
+    public int getStartingPlayerNumber() {return startingPlayerNumber;}
+    public int getResult() {return result;}
+    public int getNumMoves() {return squares.length;}
+    public int getSquare(int move) {return squares[move];}
+    public int getThinkTimeMicros(int move) {return thinkTimesMicros[move];}
+    public int getMovingPlayer(int move) {return (move % 2 == 0) ? startingPlayerNumber : 3 - startingPlayerNumber;}
+}
\ No newline at end of file
@@ -0,0 +1,250 @@
+/**
+ * Runs every engine against the golden-position corpus (golden-positions.txt) and fails on any regression
+ *
+ * Each corpus line is a position with its exact value and every best move, plus the budgets it must stay in:
+ *   <field> <win|tie|loss> <best squares> [<engine>=<max nodes> ...] [ms=<max milliseconds per engine>]
+ * Values are for the player to move, squares are numbered row * boardSize + col, and '#' starts a comment
+ * A position fails if an engine plays a move outside the best set, reports the wrong value or the wrong set of
+ * best moves, or goes over its node or time budget
+ *
+ * Engines:
+ *   game     - Game.enemyMove (minimax on 3x3, the proof-number solver on larger boards)
+ *   analysis - Game.analyzePosition (exact value of every move)
+ *   dfpn     - ProofNumberSearch on its own
+ * game and analysis only run on positions of Game's board size, so cover every size with
+ *   for n in 3 4 5; do java -Dtictactoe.boardSize=$n GoldenPositions; done
+ *
+ * Usage: java GoldenPositions [record] [corpus file] [engine ...]
+ * "record" rewrites the budgets from this run's measurements (with headroom) after an intended change
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+public class GoldenPositions
+{
+    public static final String[] ENGINES = {"game", "analysis", "dfpn"};
+    private static final String DEFAULT_CORPUS = "golden-positions.txt";
+    private static final String[] VALUE_NAMES = {"loss", "tie", "win"}; //indexed by value + 1
+    private static final int RUNS = 2; //each engine runs twice on a position and the faster time counts
+    private static final double NODE_HEADROOM = 1.5; //budget = nodes * headroom when recording
+    private static final double TIME_HEADROOM = 5;
+    private static final long MIN_TIME_BUDGET_MS = 100;
+    private static final int DFPN_TABLE_SIZE_MB = 16;
+    private static final int NO_VALUE = Integer.MIN_VALUE; //for engines that don't report the value
+    
+    /**
+     * One corpus line
+     */
+    private static class Position
+    {
+        String field;
+        int boardSize;
+        int value;
+        TreeSet<Integer> bestMoves = new TreeSet<Integer>();
+        LinkedHashMap<String, Long> nodeBudgets = new LinkedHashMap<String, Long>();
+        long timeBudgetMs; //0 if there's none
+        
+        Position(String line)
+        {
+            String[] tokens = line.trim().split("\\s+");
+            field = tokens[0];
+            boardSize = (int)Math.round(Math.sqrt(field.length()));
+            if (boardSize * boardSize != field.length() || boardSize < 3 || boardSize > Bitboard.MAX_BOARD_SIZE)
+                throw new IllegalArgumentException("bad field " + field);
+            value = Arrays.asList(VALUE_NAMES).indexOf(tokens[1]) - 1;
+            if (value < -1)
+                throw new IllegalArgumentException("bad value " + tokens[1]);
+            for (String square : tokens[2].split(","))
+                bestMoves.add(Integer.parseInt(square));
+            for (int i = 3; i < tokens.length; i++)
+            {
+                String[] budget = tokens[i].split("=");
+                if (budget[0].equals("ms"))
+                    timeBudgetMs = Long.parseLong(budget[1]);
+                else
+                    nodeBudgets.put(budget[0], Long.parseLong(budget[1]));
+            }
+        }
+        
+        public String toString()
+        {
+            StringBuilder budgets = new StringBuilder();
+            for (String engine : ENGINES)
+            {
+                if (nodeBudgets.containsKey(engine))
+                    budgets.append(engine).append('=').append(nodeBudgets.get(engine)).append(' ');
+            }
+            if (timeBudgetMs > 0)
+                budgets.append("ms=").append(timeBudgetMs);
+            String moves = bestMoves.toString().replaceAll("[\\[\\] ]", "");
+            return String.format("%-25s %-4s %-34s %s", field, VALUE_NAMES[value + 1], moves, budgets).trim();
+        }
+    }
+    
+    /**
+     * What an engine did on a position
+     */
+    private static class Outcome
+    {
+        int square = -1; //the move it played, -1 if it doesn't play one
+        int value = NO_VALUE;
+        TreeSet<Integer> bestMoves; //null if it doesn't report them
+        long nodes;
+        long timeNanos;
+    }
+    
+    private static boolean runs(String engine, Position position)
+    {
+        return engine.equals("dfpn") || position.boardSize == Game.BOARD_SIZE;
+    }
+    
+    private static Outcome run(String engine, Position position)
+    {
+        Outcome outcome = new Outcome();
+        long start = System.nanoTime();
+        if (engine.equals("dfpn"))
+        {
+            ProofNumberSearch solver = new ProofNumberSearch(position.boardSize, DFPN_TABLE_SIZE_MB);
+            solver.setNodeBudget(Long.MAX_VALUE);
+            String after = solver.findBestMove(position.field);
+            outcome.nodes = solver.getNodesSearched();
+            outcome.value = solver.solve(position.field);
+            outcome.nodes += solver.getNodesSearched();
+            outcome.square = changedSquare(position.field, after);
+        }
+        else
+        {
+            Game game = new Game();
+            game.setWarmupWait(0);
+            game.setPosition(position.field);
+            if (engine.equals("game"))
+            {
+                game.enemyMove();
+                outcome.square = changedSquare(position.field, game.curFieldToString());
+            }
+            else
+            {
+                outcome.bestMoves = new TreeSet<Integer>();
+                game.setAnalysisNodeBudget(Long.MAX_VALUE); //the corpus sets the budgets
+                for (MoveAnalysis move : game.analyzePosition())
+                {
+                    if (outcome.value == NO_VALUE || move.getResult() > outcome.value)
+                    {
+                        outcome.value = move.getResult();
+                        outcome.bestMoves.clear();
+                    }
+                    if (move.getResult() == outcome.value)
+                        outcome.bestMoves.add(move.getRow() * position.boardSize + move.getCol());
+                }
+            }
+            outcome.nodes = game.getNodesSearched();
+        }
+        outcome.timeNanos = System.nanoTime() - start;
+        return outcome;
+    }
+    
+    private static int changedSquare(String before, String after)
+    {
+        for (int i = 0; after != null && i < before.length(); i++)
+        {
+            if (before.charAt(i) != after.charAt(i))
+                return i;
+        }
+        return -1;
+    }
+    
+    /**
+     * @return why the outcome fails the position, or null if it passes
+     */
+    private static String check(String engine, Position position, Outcome outcome)
+    {
+        if (outcome.value != NO_VALUE && outcome.value != position.value)
+            return "value " + VALUE_NAMES[outcome.value + 1] + ", expected " + VALUE_NAMES[position.value + 1];
+        if (outcome.bestMoves != null && !outcome.bestMoves.equals(position.bestMoves))
+            return "best moves " + outcome.bestMoves + ", expected " + position.bestMoves;
+        if (outcome.bestMoves == null && !position.bestMoves.contains(outcome.square))
+            return "played " + outcome.square + ", expected one of " + position.bestMoves;
+        Long nodeBudget = position.nodeBudgets.get(engine);
+        if (nodeBudget != null && outcome.nodes > nodeBudget)
+            return outcome.nodes + " nodes, budget " + nodeBudget;
+        if (position.timeBudgetMs > 0 && outcome.timeNanos / 1000000 > position.timeBudgetMs)
+            return outcome.timeNanos / 1000000 + " ms, budget " + position.timeBudgetMs;
+        return null;
+    }
+    
+    public static void main(String[] args) throws IOException
+    {
+        boolean record = false;
+        File corpus = new File(DEFAULT_CORPUS);
+        List<String> engines = new ArrayList<String>();
+        for (String arg : args)
+        {
+            if (arg.equals("record"))
+                record = true;
+            else if (Arrays.asList(ENGINES).contains(arg))
+                engines.add(arg);
+            else
+                corpus = new File(arg);
+        }
+        if (engines.isEmpty())
+            engines.addAll(Arrays.asList(ENGINES));
+        
+        List<String> lines = Files.readAllLines(corpus.toPath(), StandardCharsets.UTF_8);
+        int numPositions = 0, numChecks = 0, numFailures = 0;
+        for (int i = 0; i < lines.size(); i++)
+        {
+            String line = lines.get(i);
+            if (line.trim().isEmpty() || line.trim().startsWith("#"))
+                continue;
+            Position position = new Position(line);
+            numPositions++;
+            long slowestNanos = 0;
+            boolean allEnginesRan = true;
+            for (String engine : ENGINES)
+            {
+                if (!engines.contains(engine) || !runs(engine, position))
+                {
+                    allEnginesRan = false;
+                    continue;
+                }
+                Outcome outcome = run(engine, position);
+                for (int r = 1; r < RUNS; r++)
+                    outcome.timeNanos = Math.min(outcome.timeNanos, run(engine, position).timeNanos);
+                slowestNanos = Math.max(slowestNanos, outcome.timeNanos);
+                numChecks++;
+                if (record)
+                {
+                    position.nodeBudgets.put(engine, Math.max(1, (long)Math.ceil(outcome.nodes * NODE_HEADROOM)));
+                    outcome.nodes = 0; //only correctness is checked while recording
+                    outcome.timeNanos = 0;
+                }
+                String failure = check(engine, position, outcome);
+                if (failure != null)
+                {
+                    numFailures++;
+                    System.out.println("FAIL " + engine + " " + position.field + ": " + failure);
+                }
+            }
+            if (record)
+            {
+                long timeBudget = Math.max(MIN_TIME_BUDGET_MS, (long)Math.ceil(slowestNanos * TIME_HEADROOM / 1e6));
+                position.timeBudgetMs = allEnginesRan ? timeBudget : Math.max(timeBudget, position.timeBudgetMs);
+                lines.set(i, position.toString());
+            }
+        }
+        if (record)
+            Files.write(corpus.toPath(), lines, StandardCharsets.UTF_8);
+        System.out.println(numPositions + " positions, " + numChecks + " engine checks on " + Game.BOARD_SIZE + "x" +
+                           Game.BOARD_SIZE + " (plus dfpn on every size), " + numFailures + " failed" +
+                           (record ? ", budgets recorded" : ""));
+        System.exit((numFailures > 0) ? 1 : 0);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,195 @@
+/**
+ * Load test for the GUI's click-to-move path: how long the player waits from a click on the board to the end of
+ * the repaint that shows the computer's reply
+ *
+ * GameGUI runs without a screen (java.awt.headless). The harness sends it synthetic MouseEvents on empty squares
+ * through the event thread, a stub notifier answers the end-of-round dialogs ("play again?" is always yes), and
+ * once the computer's reply has come back from MoveScheduler (GameGUI.whenIdle) the repaints it asked for are
+ * painted into an offscreen image, as the event thread would paint them on screen. GameGUI ignores clicks while
+ * the computer is moving, so clicks are sent one at a time: a click's latency runs from when it was sent (at a
+ * fixed click rate, when it was due) to the end of that paint, so it includes the time it waited for earlier ones
+ * The first WARMUP_CLICKS of each run (while the JIT compiles the engine) aren't counted, and a run stops sending
+ * clicks after -Dtictactoe.loadTest.timeLimitMs (default 60 s), so slow settings report fewer clicks
+ *
+ * The board size is fixed per JVM, so every board size and difficulty runs in its own JVM, which is passed the
+ * tictactoe.* properties of this one: compare other engine settings (e.g. -Dtictactoe.solverNodeBudget,
+ * -Dtictactoe.openingBook) by running it again with them
+ *
+ * Usage: java GuiLoadTest [clicks per run] [clicks per second, 0 for back to back] [board sizes, e.g. 3,4]
+ *                         [difficulties, e.g. easy,perfect]
+ */
+
+import java.awt.EventQueue;
+import java.awt.Point;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import javax.swing.JOptionPane;
+
+public class GuiLoadTest
+{
+    private static final int DEFAULT_CLICKS = 300;
+    private static final String DEFAULT_BOARD_SIZES = "3,4,5";
+    private static final String DEFAULT_DIFFICULTIES = "easy,medium,hard,perfect";
+    private static final int WARMUP_CLICKS = 20;
+    private static final int IMAGE_SIZE_PIXELS = 700; //GameGUI's window size
+    private static final long TIME_LIMIT_MS = Long.getLong("tictactoe.loadTest.timeLimitMs", 60000); //per run
+    
+    private final GameGUI gui = new GameGUI();
+    private final BufferedImage image = new BufferedImage(IMAGE_SIZE_PIXELS, IMAGE_SIZE_PIXELS,
+                                                          BufferedImage.TYPE_INT_RGB);
+    private final Random random = new Random();
+    private final long[] latencies; //nanoseconds, by click
+    private int numSent; //clicks sent so far
+    private int numRounds = 1;
+    private int numErrors; //error dialogs, e.g. for a click GameGUI turned down
+    
+    private GuiLoadTest(int numClicks)
+    {
+        latencies = new long[numClicks];
+    }
+    
+    /**
+     * Runs on the event thread: a click on a random empty square
+     */
+    private void click()
+    {
+        Game game = gui.getGame();
+        int square;
+        do
+        {
+            square = random.nextInt(Game.NUM_SQUARES);
+        } while (game.getPiece(square) != '\0');
+        Point point = gui.getClickPoint(square / Game.BOARD_SIZE, square % Game.BOARD_SIZE);
+        gui.dispatchEvent(new MouseEvent(gui, MouseEvent.MOUSE_CLICKED, System.currentTimeMillis(), 0, point.x,
+                                         point.y, 1, false));
+    }
+    
+    /**
+     * Runs the action on the event thread, then waits for the computer's move it started (if any) and paints
+     */
+    private void onEventThread(Runnable action) throws Exception
+    {
+        EventQueue.invokeAndWait(action);
+        final CompletableFuture<?>[] reply = new CompletableFuture<?>[1];
+        EventQueue.invokeAndWait(() -> reply[0] = GameGUI.whenIdle());
+        reply[0].get();
+        EventQueue.invokeAndWait(() -> gui.paintOffscreen(image));
+    }
+    
+    /**
+     * Plays numClicks clicks, back to back (clicksPerSecond = 0) or each one when it's due at a fixed rate (or
+     * as soon as the one before has been answered, if that's later), until the time limit
+     * @return the nanoseconds from the first click being sent to the last one's repaint
+     */
+    private long run(double clicksPerSecond) throws Exception
+    {
+        GameGUI.setNotifier(new GameGUI.Notifier() {
+            public void showMessage(String message, String title, int messageType)
+            {
+                if (messageType == JOptionPane.ERROR_MESSAGE)
+                    numErrors++;
+            }
+            
+            public boolean askYesNo(String message, String title)
+            {
+                numRounds++;
+                return true;
+            }
+        });
+        onEventThread(() -> gui.play());
+        long start = System.nanoTime();
+        for (int i = 0; i < latencies.length && System.nanoTime() - start < TIME_LIMIT_MS * 1000000; i++)
+        {
+            long sentNanos = System.nanoTime();
+            if (clicksPerSecond > 0)
+            {
+                sentNanos = start + (long)(i * 1e9 / clicksPerSecond);
+                LockSupport.parkNanos(sentNanos - System.nanoTime());
+            }
+            numSent++;
+            onEventThread(() -> click());
+            latencies[i] = System.nanoTime() - sentNanos;
+        }
+        return System.nanoTime() - start;
+    }
+    
+    private static double percentileMs(long[] sorted, double percentile)
+    {
+        int i = (int)Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1e6;
+    }
+    
+    private void report(long elapsedNanos)
+    {
+        long[] sorted = Arrays.copyOfRange(latencies, (numSent > WARMUP_CLICKS) ? WARMUP_CLICKS : 0, numSent);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long latency : sorted)
+            total += latency;
+        System.out.println(String.format("%-5s %-8s %7d %9.2f %9.2f %9.2f %9.2f %9.2f %9.1f %7d %7d",
+                                         Game.BOARD_SIZE + "x" + Game.BOARD_SIZE,
+                                         Game.DIFFICULTY_NAMES[gui.getGame().getDifficulty()], sorted.length,
+                                         percentileMs(sorted, 50), percentileMs(sorted, 90),
+                                         percentileMs(sorted, 99), sorted[sorted.length - 1] / 1e6,
+                                         total / 1e6 / sorted.length, numSent * 1e9 / elapsedNanos,
+                                         numRounds, numErrors));
+    }
+    
+    /**
+     * Starts the JVM for one board size and difficulty and waits for its report line
+     */
+    private static void runChild(int boardSize, String difficulty, int numClicks, double clicksPerSecond)
+        throws IOException, InterruptedException
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<String>(Arrays.asList(java, "-Djava.awt.headless=true",
+                                                                   "-Dtictactoe.boardSize=" + boardSize,
+                                                                   "-Dtictactoe.difficulty=" + difficulty));
+        for (String name : System.getProperties().stringPropertyNames())
+        {
+            if (name.startsWith("tictactoe.") && !name.equals("tictactoe.boardSize") &&
+                !name.equals("tictactoe.difficulty"))
+                command.add("-D" + name + "=" + System.getProperty(name));
+        }
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), "GuiLoadTest", "run",
+                                     "" + numClicks, "" + clicksPerSecond));
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.inheritIO();
+        int exitCode = builder.start().waitFor();
+        if (exitCode != 0)
+            System.out.println(boardSize + "x" + boardSize + " " + difficulty + " failed (exit code " + exitCode + ")");
+    }
+    
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length > 0 && args[0].equals("run")) //one run in this JVM, as started by runChild
+        {
+            System.setProperty("java.awt.headless", "true");
+            GuiLoadTest test = new GuiLoadTest(Math.max(1, Integer.parseInt(args[1])));
+            test.report(test.run(Double.parseDouble(args[2])));
+            System.exit(0); //the event thread would keep the JVM alive
+        }
+        int numClicks = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_CLICKS;
+        double clicksPerSecond = (args.length > 1) ? Double.parseDouble(args[1]) : 0;
+        String boardSizes = (args.length > 2) ? args[2] : DEFAULT_BOARD_SIZES;
+        String difficulties = (args.length > 3) ? args[3] : DEFAULT_DIFFICULTIES;
+        System.out.println(numClicks + " clicks per run (" + WARMUP_CLICKS + " warm-up clicks not counted), " +
+                           ((clicksPerSecond > 0) ? clicksPerSecond + " clicks per second" : "back to back") +
+                           ", latencies in ms");
+        System.out.println(String.format("%-5s %-8s %7s %9s %9s %9s %9s %9s %9s %7s %7s", "board", "tier", "clicks",
+                                         "p50", "p90", "p99", "max", "mean", "clicks/s", "rounds", "errors"));
+        for (String boardSize : boardSizes.split(","))
+        {
+            for (String difficulty : difficulties.split(","))
+                runChild(Integer.parseInt(boardSize), difficulty, numClicks, clicksPerSecond);
+        }
+    }
+}
\ No newline at end of file
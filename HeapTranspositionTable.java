@@ -0,0 +1,22 @@
+/**
+ * TranspositionTable kept in a HashMap on the Java heap
+ * It never forgets a position, but every entry is a few small objects the garbage collector has to trace
+ * Not thread-safe: each Game has its own
+ */
+
+import java.util.HashMap;
+
+public class HeapTranspositionTable extends TranspositionTable
+{
+    private final HashMap<Long, Long> entries = new HashMap<Long, Long>();
+    
+    public long get(long key)
+    {
+        Long entry = entries.get(key);
+        return (entry == null) ? MISSING : entry;
+    }
+    
+    public void put(long key, long entry) {entries.put(key, entry);}
+    public long size() {return entries.size();}
+    public void clear() {entries.clear();}
+}
\ No newline at end of file
@@ -0,0 +1,42 @@
+/**
+ * The exact game-theoretic value of one legal move, as returned by Game.analyzePosition()
+ *
+ * The result is from the point of view of the player making the move, assuming both sides play perfectly
+ * afterwards (the winner ends the game as fast as possible, the loser drags it out as long as possible)
+ */
+
+public class MoveAnalysis
+{
+    public static final int WIN = 1;
+    public static final int TIE = 0;
+    public static final int LOSS = -1;
+    public static final int UNKNOWN = 2; //not solved within Game's analysis node budget
+    
+    private final int row, col;
+    private final int result; //WIN, TIE, LOSS, or UNKNOWN
+    private final int movesToEnd; //number of moves (including this one) until the game ends, 0 if not known
+    
+    public MoveAnalysis(int row, int col, int result, int movesToEnd)
+    {
+        this.row = row;
+        this.col = col;
+        this.result = result;
+        this.movesToEnd = movesToEnd;
+    }
+    
+    /**
+     * Getters
+     */
+    public int getRow() {return row;}
+    public int getCol() {return col;}
+    public int getResult() {return result;}
+    public int getMovesToEnd() {return movesToEnd;}
+    
+    public String toString()
+    {
+        String[] names = {"loss", "tie", "win", "unknown"};
+        if (result == UNKNOWN)
+            return "(" + (row+1) + ", " + (col+1) + "): " + names[result + 1];
+        return "(" + (row+1) + ", " + (col+1) + "): " + names[result + 1] + " in " + movesToEnd;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,441 @@
+/**
+ * Runs the computer's moves for many games (sessions) on a bounded pool of worker threads
+ *
+ * Each request has a priority and a deadline. Waiting requests are served by priority, then earliest deadline
+ * first, then in arrival order, and every search is given only the time left until its deadline, so one long
+ * 4x4/5x5 search can't hold a worker past the point where its answer is still useful
+ * Admission control: once maxQueued requests are waiting, new ones are rejected right away (the future fails
+ * with a RejectedExecutionException) instead of piling up behind the backlog
+ * Load shedding: a request whose deadline is closer than a typical full search takes, or that is served while
+ * the queue is overloaded, gets a REDUCED search (1% of the solver's node budget and a quarter of the time
+ * left); one whose deadline has already passed gets a MINIMAL search, which still returns a sound move in a
+ * few milliseconds
+ * Only the proof-number solver (boards larger than 3x3) is affected by budgets: 3x3 minimax is always cheap
+ *
+ * A Game isn't thread-safe, so each game must wait for its move before submitting the next one
+ * The GUI and EngineProtocol play their computer moves through shared() at interactive priority: the GUI submits
+ * them and carries on, EngineProtocol waits for each one (see move)
+ * Run "java -Dtictactoe.boardSize=4 MoveScheduler [sessions] [workers] [deadline ms] [noshed]" to simulate a
+ * busy host and print the queue/run time percentiles
+ */
+
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class MoveScheduler
+{
+    //Priorities, most urgent first
+    public static final int PRIORITY_INTERACTIVE = 0; //a player is waiting for the move
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_BACKGROUND = 2; //analysis, self-play, warm-up
+    
+    public static final long NO_DEADLINE = 0; //timeout for a search bounded only by the game's own limits
+    
+    //Search levels
+    public static final int FULL = 0;
+    public static final int REDUCED = 1;
+    public static final int MINIMAL = 2;
+    
+    private static final long REDUCED_BUDGET_DIVISOR = 100; //of the game's solver node budget
+    private static final long REDUCED_TIME_DIVISOR = 4; //of the time left until the deadline
+    private static final long MINIMAL_NODE_BUDGET = 1000; //per yes/no search (the solver may run one per move)
+    private static final long MINIMAL_TIME_LIMIT_MS = 10;
+    private static final int OVERLOAD_PER_WORKER = 4; //queued requests per worker beyond which searches shrink
+    private static final int NUM_LATENCY_BUCKETS = 32; //bucket i holds times in [2^(i-1), 2^i) microseconds
+    private static final int PLAYER_THINK_TIME_MS = 200; //for the simulation in main
+    private static final int SHARED_WORKERS = Integer.getInteger("tictactoe.moveWorkers",
+                                                                 Runtime.getRuntime().availableProcessors());
+    
+    private static MoveScheduler shared;
+    
+    /**
+     * One pending computer move
+     */
+    private static class MoveRequest implements Comparable<MoveRequest>
+    {
+        final Game game;
+        final int priority;
+        final long deadline; //System.nanoTime(), Long.MAX_VALUE for NO_DEADLINE
+        final long sequence;
+        final long submitTime;
+        final CompletableFuture<String> result = new CompletableFuture<String>();
+        
+        MoveRequest(Game game, int priority, long deadline, long sequence)
+        {
+            this.game = game;
+            this.priority = priority;
+            this.deadline = deadline;
+            this.sequence = sequence;
+            submitTime = System.nanoTime();
+        }
+        
+        public int compareTo(MoveRequest other)
+        {
+            if (priority != other.priority)
+                return Integer.compare(priority, other.priority);
+            if (deadline != other.deadline)
+                return Long.compare(deadline, other.deadline);
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+    
+    private final PriorityBlockingQueue<MoveRequest> queue = new PriorityBlockingQueue<MoveRequest>();
+    private final Thread[] workers;
+    private final int maxQueued;
+    private final AtomicInteger numQueued = new AtomicInteger(); //admitted but not started yet
+    private final AtomicLong nextSequence = new AtomicLong();
+    private volatile boolean shedding = true;
+    private volatile boolean running = true;
+    private volatile long typicalRunTime; //nanoseconds, moving average of the FULL searches
+    
+    //Metrics
+    private final AtomicLong submitted = new AtomicLong(), rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong(), failed = new AtomicLong();
+    private final AtomicLong deadlinesMissed = new AtomicLong();
+    private final AtomicLong workersReplaced = new AtomicLong(); //workers an Error ended (see startWorker)
+    private final AtomicLongArray levels = new AtomicLongArray(3); //completed searches per level
+    private final AtomicLongArray queueTimes = new AtomicLongArray(NUM_LATENCY_BUCKETS);
+    private final AtomicLongArray runTimes = new AtomicLongArray(NUM_LATENCY_BUCKETS);
+    
+    public MoveScheduler(int numWorkers, int maxQueued)
+    {
+        this.maxQueued = maxQueued;
+        workers = new Thread[numWorkers];
+        for (int i = 0; i < numWorkers; i++)
+            startWorker(i);
+    }
+    
+    /**
+     * Starts worker i. A worker only stops early when a search throws an Error (the request fails with it
+     * first), and then a new one takes its place, so the pool never shrinks and no request is left waiting
+     */
+    private synchronized void startWorker(final int i)
+    {
+        workers[i] = new Thread(new Runnable() {
+            public void run()
+            {
+                try
+                {
+                    work();
+                }
+                finally
+                {
+                    if (running)
+                    {
+                        workersReplaced.incrementAndGet();
+                        startWorker(i);
+                    }
+                }
+            }
+        }, "move-worker-" + i);
+        workers[i].setDaemon(true);
+        workers[i].start();
+    }
+    
+    /**
+     * @return the scheduler shared by the GUI and EngineProtocol, started on first use with
+     *         -Dtictactoe.moveWorkers workers (default: one per processor)
+     */
+    public static synchronized MoveScheduler shared()
+    {
+        if (shared == null)
+            shared = new MoveScheduler(SHARED_WORKERS, SHARED_WORKERS * OVERLOAD_PER_WORKER * 2);
+        return shared;
+    }
+    
+    /**
+     * Queues the computer's move in the game
+     * @param timeoutMs - how long the caller is willing to wait for the move, or NO_DEADLINE
+     * @return the field after the move; fails with a RejectedExecutionException if the request wasn't admitted,
+     *         or with a GameException if the game is already over
+     */
+    public CompletableFuture<String> submit(Game game, int priority, long timeoutMs)
+    {
+        submitted.incrementAndGet();
+        long deadline = (timeoutMs == NO_DEADLINE) ? Long.MAX_VALUE : System.nanoTime() + timeoutMs * 1000000;
+        MoveRequest request = new MoveRequest(game, priority, deadline, nextSequence.getAndIncrement());
+        if (!running || numQueued.incrementAndGet() > maxQueued)
+        {
+            numQueued.decrementAndGet();
+            rejected.incrementAndGet();
+            request.result.completeExceptionally(new RejectedExecutionException(running ? "move queue full" :
+                                                                                "scheduler shut down"));
+            return request.result;
+        }
+        queue.add(request);
+        return request.result;
+    }
+    
+    /**
+     * Plays the computer's move in the game on a worker and waits for it
+     * @param timeoutMs - as for submit
+     * @throws GameException if the game is already over, the request wasn't admitted, or the wait was interrupted
+     */
+    public void move(Game game, int priority, long timeoutMs) throws GameException
+    {
+        try
+        {
+            submit(game, priority, timeoutMs).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new GameException("interrupted while waiting for the computer's move");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof GameException)
+                throw (GameException)cause;
+            if (cause instanceof RejectedExecutionException)
+                throw new GameException("the computer can't move right now (" + cause.getMessage() + ")");
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+    
+    /**
+     * Stops the workers once their current searches finish; requests still waiting are rejected
+     */
+    public void shutdown()
+    {
+        running = false;
+        synchronized (this)
+        {
+            for (Thread worker : workers)
+                worker.interrupt();
+        }
+        for (MoveRequest request = queue.poll(); request != null; request = queue.poll())
+        {
+            rejected.incrementAndGet();
+            request.result.completeExceptionally(new RejectedExecutionException("scheduler shut down"));
+        }
+    }
+    
+    private void work()
+    {
+        while (running)
+        {
+            MoveRequest request;
+            try
+            {
+                request = queue.take();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            numQueued.decrementAndGet();
+            run(request);
+        }
+    }
+    
+    private void run(MoveRequest request)
+    {
+        Game game = request.game;
+        long start = System.nanoTime();
+        record(queueTimes, start - request.submitTime);
+        int level = chooseLevel(request, start);
+        long oldBudget = game.getSolverNodeBudget(), oldTimeLimit = game.getSolverTimeLimit();
+        if (level == MINIMAL)
+        {
+            game.setSolverNodeBudget(MINIMAL_NODE_BUDGET);
+            game.setSolverTimeLimit(MINIMAL_TIME_LIMIT_MS);
+        }
+        else if (level == REDUCED)
+        {
+            game.setSolverNodeBudget(Math.max(MINIMAL_NODE_BUDGET, oldBudget / REDUCED_BUDGET_DIVISOR));
+            game.setSolverTimeLimit(Math.max(1, (request.deadline - start) / 1000000 / REDUCED_TIME_DIVISOR));
+        }
+        else if (request.deadline != Long.MAX_VALUE)
+            game.setSolverTimeLimit(Math.max(1, (request.deadline - start) / 1000000));
+        try
+        {
+            if (game.getWinner() != -1)
+                throw new GameException("the game is already over");
+            game.enemyMove();
+            request.result.complete(game.curFieldToString());
+            completed.incrementAndGet();
+            levels.incrementAndGet(level);
+        }
+        catch (Exception e) //handed to the caller, so the worker stays alive
+        {
+            failed.incrementAndGet();
+            request.result.completeExceptionally(e);
+        }
+        catch (Error e) //e.g. an OutOfMemoryError: the caller hears of it, and the worker is replaced
+        {
+            failed.incrementAndGet();
+            request.result.completeExceptionally(e);
+            throw e;
+        }
+        finally
+        {
+            game.setSolverNodeBudget(oldBudget);
+            game.setSolverTimeLimit(oldTimeLimit);
+        }
+        long end = System.nanoTime();
+        record(runTimes, end - start);
+        if (end > request.deadline)
+            deadlinesMissed.incrementAndGet();
+        if (level == FULL)
+            typicalRunTime = (typicalRunTime * 7 + (end - start)) / 8;
+    }
+    
+    private int chooseLevel(MoveRequest request, long now)
+    {
+        if (!shedding)
+            return FULL;
+        long timeLeft = request.deadline - now;
+        if (timeLeft <= 0)
+            return MINIMAL;
+        if (timeLeft < typicalRunTime || numQueued.get() > workers.length * OVERLOAD_PER_WORKER)
+            return REDUCED;
+        return FULL;
+    }
+    
+    private static void record(AtomicLongArray histogram, long nanos)
+    {
+        int bucket = 64 - Long.numberOfLeadingZeros(Math.max(nanos / 1000, 0));
+        histogram.incrementAndGet(Math.min(bucket, NUM_LATENCY_BUCKETS - 1));
+    }
+    
+    /**
+     * @return the upper bound (in microseconds) of the bucket holding the given percentile, 0 if empty
+     */
+    private static long percentile(AtomicLongArray histogram, double percentile)
+    {
+        long total = 0;
+        for (int i = 0; i < NUM_LATENCY_BUCKETS; i++)
+            total += histogram.get(i);
+        long target = (long)Math.ceil(total * percentile / 100), seen = 0;
+        for (int i = 0; i < NUM_LATENCY_BUCKETS && total > 0; i++)
+        {
+            seen += histogram.get(i);
+            if (seen >= target)
+                return 1L << i;
+        }
+        return 0;
+    }
+    
+    public long queueTimePercentile(double percentile) {return percentile(queueTimes, percentile);}
+    public long runTimePercentile(double percentile) {return percentile(runTimes, percentile);}
+    
+    public void printMetrics(PrintStream out)
+    {
+        out.println("requests: " + submitted.get() + " submitted, " + rejected.get() + " rejected, " +
+                    completed.get() + " completed, " + failed.get() + " failed, " + deadlinesMissed.get() +
+                    " past their deadline, " + workersReplaced.get() + " workers replaced after an Error");
+        out.println("searches: " + levels.get(FULL) + " full, " + levels.get(REDUCED) + " reduced, " +
+                    levels.get(MINIMAL) + " minimal");
+        out.println("percentiles (microseconds, power-of-two buckets):   p50      p90      p99    p99.9");
+        out.println(String.format("  queue time %37d %8d %8d %8d", queueTimePercentile(50),
+                                  queueTimePercentile(90), queueTimePercentile(99), queueTimePercentile(99.9)));
+        out.println(String.format("  run time   %37d %8d %8d %8d", runTimePercentile(50),
+                                  runTimePercentile(90), runTimePercentile(99), runTimePercentile(99.9)));
+    }
+    
+    /**
+     * Getters/setters
+     */
+    public int getNumQueued() {return numQueued.get();}
+    public long getSubmitted() {return submitted.get();}
+    public long getRejected() {return rejected.get();}
+    public long getCompleted() {return completed.get();}
+    public long getDeadlinesMissed() {return deadlinesMissed.get();}
+    public long getWorkersReplaced() {return workersReplaced.get();}
+    public long getLevelCount(int level) {return levels.get(level);}
+    public void setShedding(boolean shedding) {this.shedding = shedding;}
+    
+    /**
+     * Each session plays random moves (after PLAYER_THINK_TIME_MS on average) against the computer, asking
+     * the scheduler for every computer move and retrying rejected requests after a short pause
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        int numSessions = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        int numWorkers = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long deadlineMs = (args.length > 2) ? Long.parseLong(args[2]) : 200;
+        final MoveScheduler scheduler = new MoveScheduler(numWorkers, numWorkers * OVERLOAD_PER_WORKER * 2);
+        scheduler.setShedding(args.length <= 3 || !args[3].equals("noshed"));
+        final int gamesPerSession = 3;
+        Thread[] sessions = new Thread[numSessions];
+        long start = System.nanoTime();
+        for (int i = 0; i < numSessions; i++)
+        {
+            final Random random = new Random(i);
+            sessions[i] = new Thread(new Runnable() {
+                public void run()
+                {
+                    try
+                    {
+                        for (int g = 0; g < gamesPerSession; g++)
+                            playSession(scheduler, random, deadlineMs);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            sessions[i].start();
+        }
+        for (Thread session : sessions)
+            session.join();
+        System.out.println(numSessions + " sessions x " + gamesPerSession + " games on " + Game.BOARD_SIZE + "x" +
+                           Game.BOARD_SIZE + ", " + numWorkers + " workers, " + deadlineMs + " ms deadline, " +
+                           "shedding " + (scheduler.shedding ? "on" : "off") + ": " +
+                           (System.nanoTime() - start) / 1000000 + " ms");
+        scheduler.printMetrics(System.out);
+        scheduler.shutdown();
+    }
+    
+    private static void playSession(MoveScheduler scheduler, Random random, long deadlineMs)
+            throws InterruptedException
+    {
+        Game game = new Game();
+        game.setWarmupWait(0);
+        while (game.getWinner() == -1)
+        {
+            String field = game.curFieldToString();
+            int square;
+            do
+            {
+                square = random.nextInt(Game.NUM_SQUARES);
+            } while (field.charAt(square) != '_');
+            Thread.sleep(random.nextInt(2 * PLAYER_THINK_TIME_MS));
+            try
+            {
+                game.playerMove(square / Game.BOARD_SIZE, square % Game.BOARD_SIZE);
+                while (game.getWinner() == -1)
+                {
+                    try
+                    {
+                        scheduler.submit(game, PRIORITY_INTERACTIVE, deadlineMs).get();
+                        break;
+                    }
+                    catch (ExecutionException e)
+                    {
+                        if (!(e.getCause() instanceof RejectedExecutionException))
+                            throw new IllegalStateException(e.getCause());
+                        Thread.sleep(10);
+                    }
+                }
+            }
+            catch (GameException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
\ No newline at end of file
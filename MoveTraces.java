@@ -0,0 +1,230 @@
+/**
+ * Plays fixed sets of games against the engine and compares its moves with the traces in move-traces.txt, so a
+ * change that is only meant to make the engine faster (caching, cutoffs, move ordering, table layout) can be
+ * checked for not changing a single move it plays
+ *
+ * Each line is one finished game: <board size> <tree|games> <player|computer (who started)> <squares in order>
+ * Squares are numbered row * boardSize + col, and '#' starts a comment
+ *   tree  - 3x3 only: every sequence of player moves from the empty board, each computer move played by a new Game
+ *           set to the position
+ *   games - random player moves (seeded) against one Game that plays round after round (resetGame), so what it
+ *           keeps between moves and rounds is part of the trace
+ * The engine plays at the perfect tier without an opening book: it sets -Dtictactoe.openingBook=none itself, so
+ * the shipped books don't pick their moves at random
+ * Only the lines for Game's board size are checked, so cover the sizes with
+ *   for n in 3 4; do java -Dtictactoe.boardSize=$n MoveTraces; done
+ * (a 5x5 game takes minutes, so 5x5 has no traces by default: record some with an explicit number of games)
+ *
+ * Usage: java MoveTraces [record] [trace file] [games per starting player, when recording]
+ * "record" rewrites this board size's lines after a change that is meant to change the engine's moves
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class MoveTraces
+{
+    private static final String DEFAULT_TRACES = "move-traces.txt";
+    private static final int[] DEFAULT_GAMES = {0, 0, 0, 1000, 100}; //per starting player, by board size
+    private static final String[] STARTERS = {"player", "computer"}; //indexed by Game's offset
+    
+    /**
+     * Appends the squares that are filled in after but not in before
+     */
+    private static void appendMoves(StringBuilder trace, String before, String after)
+    {
+        for (int i = 0; i < before.length(); i++)
+        {
+            if (before.charAt(i) != after.charAt(i))
+                trace.append(' ').append(i);
+        }
+    }
+    
+    private static Game newGame(int offset)
+    {
+        Game game = new Game(offset);
+        game.setWarmupWait(0);
+        game.setDifficulty(Game.PERFECT);
+        return game;
+    }
+    
+    /**
+     * Tries every player move in the position, recursing until each game is over
+     */
+    private static void tree(String field, int offset, String trace, List<String> traces) throws GameException
+    {
+        for (int square = 0; square < field.length(); square++)
+        {
+            if (field.charAt(square) != '_')
+                continue;
+            Game game = newGame(offset);
+            game.setPosition(field);
+            game.playerMove(square / Game.BOARD_SIZE, square % Game.BOARD_SIZE);
+            StringBuilder next = new StringBuilder(trace).append(' ').append(square);
+            if (game.getWinner() == -1)
+            {
+                String before = game.curFieldToString();
+                game.enemyMove();
+                appendMoves(next, before, game.curFieldToString());
+            }
+            if (game.getWinner() == -1)
+                tree(game.curFieldToString(), offset, next.toString(), traces);
+            else
+                traces.add(next.toString());
+        }
+    }
+    
+    /**
+     * Plays numGames rounds of random player moves (seeded by the offset) against one Game
+     */
+    private static void games(int offset, int numGames, List<String> traces) throws GameException
+    {
+        Random random = new Random(offset);
+        Game game = newGame(offset);
+        String empty = game.curFieldToString();
+        for (int g = 0; g < numGames; g++)
+        {
+            if (offset == 1) //the computer starts every round
+                game.enemyMove();
+            StringBuilder trace = new StringBuilder(Game.BOARD_SIZE + " games " + STARTERS[offset]);
+            appendMoves(trace, empty, game.curFieldToString());
+            while (game.getWinner() == -1)
+            {
+                String field = game.curFieldToString();
+                int square;
+                do
+                {
+                    square = random.nextInt(field.length());
+                } while (field.charAt(square) != '_');
+                game.playerMove(square / Game.BOARD_SIZE, square % Game.BOARD_SIZE);
+                trace.append(' ').append(square);
+                if (game.getWinner() != -1)
+                    break;
+                String before = game.curFieldToString();
+                game.enemyMove();
+                appendMoves(trace, before, game.curFieldToString());
+            }
+            traces.add(trace.toString());
+            game.resetGame();
+        }
+    }
+    
+    private static List<String> play(int gamesPerStarter) throws GameException
+    {
+        List<String> traces = new ArrayList<String>();
+        for (int offset = 0; offset < 2; offset++)
+        {
+            if (Game.BOARD_SIZE == 3)
+            {
+                String prefix = Game.BOARD_SIZE + " tree " + STARTERS[offset];
+                Game game = newGame(offset);
+                String empty = game.curFieldToString();
+                if (offset == 1)
+                {
+                    game.enemyMove();
+                    StringBuilder first = new StringBuilder(prefix);
+                    appendMoves(first, empty, game.curFieldToString());
+                    prefix = first.toString();
+                }
+                tree(game.curFieldToString(), offset, prefix, traces);
+            }
+            games(offset, gamesPerStarter, traces);
+        }
+        return traces;
+    }
+    
+    private static boolean isTrace(String line)
+    {
+        return !line.trim().isEmpty() && !line.trim().startsWith("#") &&
+               line.trim().split("\\s+")[0].equals("" + Game.BOARD_SIZE);
+    }
+    
+    public static void main(String[] args) throws IOException, GameException
+    {
+        String book = System.getProperty("tictactoe.openingBook", OpeningBook.NO_BOOK);
+        if (!book.equals(OpeningBook.NO_BOOK))
+        {
+            System.out.println("MoveTraces checks the engine's own moves, run it without -Dtictactoe.openingBook");
+            System.exit(1);
+        }
+        System.setProperty("tictactoe.openingBook", OpeningBook.NO_BOOK); //before Game loads its book
+        boolean record = false;
+        File file = new File(DEFAULT_TRACES);
+        int gamesPerStarter = (Game.BOARD_SIZE < DEFAULT_GAMES.length) ? DEFAULT_GAMES[Game.BOARD_SIZE] : 0;
+        for (String arg : args)
+        {
+            if (arg.equals("record"))
+                record = true;
+            else if (arg.matches("\\d+"))
+                gamesPerStarter = Integer.parseInt(arg);
+            else
+                file = new File(arg);
+        }
+        List<String> lines = file.exists() ? Files.readAllLines(file.toPath(), StandardCharsets.UTF_8) :
+                                             new ArrayList<String>();
+        List<String> expected = new ArrayList<String>();
+        for (String line : lines)
+        {
+            if (isTrace(line))
+                expected.add(line.trim());
+        }
+        if (!record) //replays as many games as were recorded
+        {
+            gamesPerStarter = 0;
+            for (String line : expected)
+            {
+                if (line.startsWith(Game.BOARD_SIZE + " games " + STARTERS[0]))
+                    gamesPerStarter++;
+            }
+        }
+        
+        long start = System.nanoTime();
+        List<String> traces = play(gamesPerStarter);
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        if (record)
+        {
+            List<String> output = new ArrayList<String>();
+            for (String line : lines)
+            {
+                if (!isTrace(line))
+                    output.add(line);
+                else if (output.isEmpty() || !isTrace(output.get(output.size() - 1)))
+                    output.addAll(traces); //in place of the old traces
+            }
+            if (expected.isEmpty())
+            {
+                output.add("");
+                output.add("# " + Game.BOARD_SIZE + "x" + Game.BOARD_SIZE);
+                output.addAll(traces);
+            }
+            Files.write(file.toPath(), output, StandardCharsets.UTF_8);
+            System.out.println(traces.size() + " games on " + Game.BOARD_SIZE + "x" + Game.BOARD_SIZE + " recorded (" +
+                               elapsedMs + " ms)");
+            return;
+        }
+        if (expected.isEmpty())
+        {
+            System.out.println("no traces for " + Game.BOARD_SIZE + "x" + Game.BOARD_SIZE + " in " + file +
+                               ", run \"java MoveTraces record\" first");
+            System.exit(1);
+        }
+        int numFailures = 0;
+        for (int i = 0; i < Math.max(traces.size(), expected.size()); i++)
+        {
+            String actual = (i < traces.size()) ? traces.get(i) : "(none)";
+            String wanted = (i < expected.size()) ? expected.get(i) : "(none)";
+            if (actual.equals(wanted))
+                continue;
+            if (numFailures++ < 10)
+                System.out.println("FAIL game " + (i + 1) + ": played " + actual + ", expected " + wanted);
+        }
+        System.out.println(expected.size() + " games on " + Game.BOARD_SIZE + "x" + Game.BOARD_SIZE + " (" +
+                           elapsedMs + " ms), " + numFailures + " differ");
+        System.exit((numFailures > 0) ? 1 : 0);
+    }
+}
\ No newline at end of file
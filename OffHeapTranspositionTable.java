@@ -0,0 +1,100 @@
+/**
+ * TranspositionTable in native memory outside the Java heap, so a large table adds nothing to GC work
+ *
+ * The memory is one direct ByteBuffer of fixed 16-byte slots (key ^ entry, entry), its size given in MB and
+ * rounded down to a power of two number of slots (at most 1 GB). A position can only live in the slot its key
+ * hashes to, and a new position simply replaces the old one, which only costs the search some re-solving
+ *
+ * Slots are read and written through a VarHandle, so each 8-byte half is accessed atomically. Storing the key
+ * XORed with the entry lets concurrent searches share the table without locks: a slot torn by two writers (one
+ * half from each) fails the key check and reads as MISSING instead of returning the wrong move
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+public class OffHeapTranspositionTable extends TranspositionTable
+{
+    private static final int SLOT_BYTES = 16;
+    private static final int MAX_SLOTS = 1 << 26; //1 GB, the most a single ByteBuffer can hold
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+                                                                                 ByteOrder.nativeOrder());
+    private static OffHeapTranspositionTable shared; //the process-wide table handed out by shared()
+    
+    private final ByteBuffer slots;
+    private final int slotMask;
+    private final LongAdder evictions = new LongAdder();
+    
+    public OffHeapTranspositionTable(int sizeMB)
+    {
+        long bytes = (long)sizeMB * 1024 * 1024;
+        int numSlots = Integer.highestOneBit((int)Math.min(MAX_SLOTS, Math.max(1, bytes / SLOT_BYTES)));
+        slots = ByteBuffer.allocateDirect(numSlots * SLOT_BYTES).order(ByteOrder.nativeOrder());
+        slotMask = numSlots - 1;
+    }
+    
+    /**
+     * @return the table shared by every Game in the process (created with sizeMB on the first call)
+     */
+    public static synchronized OffHeapTranspositionTable shared(int sizeMB)
+    {
+        if (shared == null)
+            shared = new OffHeapTranspositionTable(sizeMB);
+        return shared;
+    }
+    
+    private int offsetOf(long key)
+    {
+        long h = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL; //MurmurHash3's finalizer, so the O pieces and the
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;          //context bits in the high half of the key spread
+        return ((int)(h ^ (h >>> 33)) & slotMask) * SLOT_BYTES; //to the slot as well
+    }
+    
+    public long get(long key)
+    {
+        int offset = offsetOf(key);
+        long check = (long)LONGS.getOpaque(slots, offset);
+        long entry = (long)LONGS.getOpaque(slots, offset + 8);
+        return ((check ^ entry) == key) ? entry : MISSING;
+    }
+    
+    public void put(long key, long entry)
+    {
+        int offset = offsetOf(key);
+        if (EngineEvents.ENABLED)
+        {
+            long oldEntry = (long)LONGS.getOpaque(slots, offset + 8);
+            if (oldEntry != MISSING && ((long)LONGS.getOpaque(slots, offset) ^ oldEntry) != key)
+                evictions.increment();
+        }
+        LONGS.setOpaque(slots, offset, key ^ entry);
+        LONGS.setOpaque(slots, offset + 8, entry);
+    }
+    
+    /**
+     * Counts the used slots (scans the whole table)
+     */
+    public long size()
+    {
+        long used = 0;
+        for (int offset = 0; offset < slots.capacity(); offset += SLOT_BYTES)
+        {
+            if ((long)LONGS.getOpaque(slots, offset + 8) != MISSING)
+                used++;
+        }
+        return used;
+    }
+    
+    public void clear()
+    {
+        for (int offset = 0; offset < slots.capacity(); offset += 8)
+            LONGS.setOpaque(slots, offset, 0L);
+    }
+    
+    public long getCapacity() {return slotMask + 1L;}
+    public long getCapacityBytes() {return slots.capacity();}
+    public long getEvictions() {return evictions.sum();}
+}
\ No newline at end of file
@@ -0,0 +1,438 @@
+/**
+ * An opening book: the computer's moves for the first plies of a game, so opening moves need no search at all
+ *
+ * File format (big-endian, as written by DataOutputStream):
+ *   int   MAGIC
+ *   int   board size
+ *   int   plies (the book covers the positions with fewer pieces than this)
+ *   int   number of entries
+ *   then for each entry, sorted by key: long key (a symmetry-reduced Bitboard position), byte number of moves,
+ *   and for each move: byte square (on the key's orientation of the board), unsigned short weight
+ * An entry's moves are equally good, and one is picked at random in proportion to the weights
+ *
+ * Books are built for Game's board size (-Dtictactoe.boardSize) in one of two ways:
+ *   search   - exact values from the proof-number solver: every move with the best value is kept, weighted by
+ *              1 + the number of opponent replies that lose, so moves that set more traps come up more often
+ *              Positions the solver can't settle within its node budget are left out
+ *   selfplay - statistics from games that open with random moves and are finished by Game at its difficulty
+ *              (-Dtictactoe.difficulty): the moves that scored within SELF_PLAY_TOLERANCE of the best average
+ *              (2 points a win, 1 a tie) are kept, weighted by the points they scored. This is the way to get
+ *              a book for 5x5, where exact values are out of reach (a 5x5 game at medium takes about 40 ms)
+ * Game loads the book named by -Dtictactoe.openingBook at startup, or else the one for its board size that ships
+ * with the game (DEFAULT_BOOK: opening-book-3.bin, every 3x3 position, and opening-book-4.bin, the 4x4 positions
+ * with up to 5 pieces, both built by search). -Dtictactoe.openingBook=none runs without a book
+ * The shipped books were built with
+ *   java -Dtictactoe.boardSize=3 OpeningBook search 9 opening-book-3.bin
+ *   java -Dtictactoe.boardSize=4 OpeningBook search 6 opening-book-4.bin
+ *
+ * Usage: java OpeningBook search <plies> <file> [node budget per yes/no search]
+ *        java OpeningBook selfplay <plies> <file> [games]
+ *        java OpeningBook show <file>
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class OpeningBook
+{
+    public static final int MAGIC = 0x54544F42; //"TTOB"
+    public static final String NO_BOOK = "none"; //-Dtictactoe.openingBook=none
+    private static final String DEFAULT_BOOK = "opening-book-%d.bin"; //by board size, in the working directory
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_WEIGHT = 0xFFFF;
+    private static final int SEARCH_TABLE_SIZE_MB = 64;
+    private static final int DEFAULT_SELF_PLAY_GAMES = 10000;
+    private static final int SELF_PLAY_MIN_GAMES = 20; //a move needs this many games before it can be chosen
+    private static final double SELF_PLAY_TOLERANCE = 0.05; //points per game
+    
+    private final int boardSize;
+    private final int plies;
+    private final long[] keys;
+    private final int[] firstMoves; //entry i's moves are firstMoves[i] up to firstMoves[i + 1]
+    private final byte[] squares;
+    private final int[] weights;
+    
+    private OpeningBook(int boardSize, int plies, long[] keys, int[] firstMoves, byte[] squares, int[] weights)
+    {
+        this.boardSize = boardSize;
+        this.plies = plies;
+        this.keys = keys;
+        this.firstMoves = firstMoves;
+        this.squares = squares;
+        this.weights = weights;
+    }
+    
+    /**
+     * @param entries - position key -> {square, weight} for each of its moves
+     */
+    private OpeningBook(int boardSize, int plies, TreeMap<Long, ArrayList<int[]>> entries)
+    {
+        this(boardSize, plies, new long[entries.size()], new int[entries.size() + 1],
+             new byte[countMoves(entries)], new int[countMoves(entries)]);
+        int i = 0, m = 0;
+        for (Map.Entry<Long, ArrayList<int[]>> entry : entries.entrySet())
+        {
+            keys[i] = entry.getKey();
+            firstMoves[i] = m;
+            for (int[] move : entry.getValue())
+            {
+                squares[m] = (byte)move[0];
+                weights[m] = Math.max(1, Math.min(MAX_WEIGHT, move[1]));
+                m++;
+            }
+            i++;
+        }
+        firstMoves[i] = m;
+    }
+    
+    private static int countMoves(TreeMap<Long, ArrayList<int[]>> entries)
+    {
+        int numMoves = 0;
+        for (ArrayList<int[]> moves : entries.values())
+            numMoves += moves.size();
+        return numMoves;
+    }
+    
+    /**
+     * Loads the book named by -Dtictactoe.openingBook, or else DEFAULT_BOOK for the board size
+     * @return null if it's NO_BOOK, there's no default book for this board size, or the book can't be used on this
+     *         board size (the reason is printed)
+     */
+    public static OpeningBook loadDefault(int boardSize)
+    {
+        String path = System.getProperty("tictactoe.openingBook");
+        if (path == null && new File(String.format(DEFAULT_BOOK, boardSize)).exists())
+            path = String.format(DEFAULT_BOOK, boardSize);
+        if (path == null || path.equals(NO_BOOK))
+            return null;
+        try
+        {
+            OpeningBook book = load(new File(path));
+            if (book.getBoardSize() == boardSize)
+                return book;
+            System.out.println("Not using the opening book " + path + ": it is for a " + book.getBoardSize() + "x" +
+                               book.getBoardSize() + " board");
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not load the opening book: " + e.getMessage());
+        }
+        return null;
+    }
+    
+    public static OpeningBook load(File file) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                                                                              BUFFER_SIZE)))
+        {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not an opening book file");
+            int boardSize = in.readInt();
+            int plies = in.readInt();
+            int numEntries = in.readInt();
+            long[] keys = new long[numEntries];
+            int[] firstMoves = new int[numEntries + 1];
+            ArrayList<int[]> moves = new ArrayList<int[]>();
+            for (int i = 0; i < numEntries; i++)
+            {
+                keys[i] = in.readLong();
+                firstMoves[i] = moves.size();
+                for (int numMoves = in.readUnsignedByte(); numMoves > 0; numMoves--)
+                    moves.add(new int[] {in.readByte(), in.readUnsignedShort()});
+            }
+            firstMoves[numEntries] = moves.size();
+            byte[] squares = new byte[moves.size()];
+            int[] weights = new int[moves.size()];
+            for (int m = 0; m < moves.size(); m++)
+            {
+                squares[m] = (byte)moves.get(m)[0];
+                weights[m] = moves.get(m)[1];
+            }
+            return new OpeningBook(boardSize, plies, keys, firstMoves, squares, weights);
+        }
+    }
+    
+    public void write(File file) throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                                                                                  BUFFER_SIZE)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(boardSize);
+            out.writeInt(plies);
+            out.writeInt(keys.length);
+            for (int i = 0; i < keys.length; i++)
+            {
+                out.writeLong(keys[i]);
+                out.writeByte(firstMoves[i + 1] - firstMoves[i]);
+                for (int m = firstMoves[i]; m < firstMoves[i + 1]; m++)
+                {
+                    out.writeByte(squares[m]);
+                    out.writeShort(weights[m]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Picks the book move for the player to move
+     * @return the square, or -1 if the position isn't in the book
+     */
+    public int pickMove(long position, Random random)
+    {
+        int symmetry = canonicalSymmetry(position, boardSize);
+        int i = find(Bitboard.transform(position, symmetry, boardSize));
+        if (i < 0)
+            return -1;
+        int totalWeight = 0;
+        for (int m = firstMoves[i]; m < firstMoves[i + 1]; m++)
+            totalWeight += weights[m];
+        int m = firstMoves[i];
+        for (int r = random.nextInt(totalWeight); r >= weights[m]; m++)
+            r -= weights[m];
+        for (int square = 0; square < boardSize * boardSize; square++) //maps the square back onto the position
+        {
+            if (Bitboard.transformSquare(square, symmetry, boardSize) == squares[m])
+                return square;
+        }
+        return -1;
+    }
+    
+    public boolean contains(long position) {return find(Bitboard.canonical(position, boardSize)) >= 0;}
+    
+    /**
+     * @return the entry index of the canonical key, or a negative number if it isn't in the book
+     */
+    private int find(long key)
+    {
+        return (Bitboard.numPieces(key) < plies) ? Arrays.binarySearch(keys, key) : -1;
+    }
+    
+    /**
+     * @return the symmetry that turns the position into Bitboard.canonical's version of it
+     */
+    private static int canonicalSymmetry(long position, int boardSize)
+    {
+        long canonical = Bitboard.canonical(position, boardSize);
+        int symmetry = 0;
+        while (Bitboard.transform(position, symmetry, boardSize) != canonical)
+            symmetry++;
+        return symmetry;
+    }
+    
+    private static boolean isOver(long position, int boardSize)
+    {
+        return Bitboard.hasLine(Bitboard.lastMoverPieces(position), boardSize) ||
+               Bitboard.occupied(position) == Bitboard.fullBoard(boardSize);
+    }
+    
+    /**
+     * Builds a book from the solver's exact values (see the class comment)
+     */
+    public static OpeningBook search(int boardSize, int plies, long nodeBudget)
+    {
+        ProofNumberSearch solver = new ProofNumberSearch(boardSize, SEARCH_TABLE_SIZE_MB);
+        solver.setNodeBudget(nodeBudget);
+        HashMap<Long, Integer> values = new HashMap<Long, Integer>(); //solved positions, by canonical key
+        TreeMap<Long, ArrayList<int[]>> entries = new TreeMap<Long, ArrayList<int[]>>();
+        TreeSet<Long> level = new TreeSet<Long>(Arrays.asList(Bitboard.EMPTY)); //canonical positions of one ply
+        for (int ply = 0; ply < plies && !level.isEmpty(); ply++)
+        {
+            TreeSet<Long> nextLevel = new TreeSet<Long>();
+            for (long position : level)
+            {
+                int[] moveValues = new int[boardSize * boardSize];
+                int best = ProofNumberSearch.LOSS;
+                boolean unknown = false;
+                for (int square = 0; square < moveValues.length; square++)
+                {
+                    if ((Bitboard.occupied(position) & (1 << square)) != 0)
+                        continue;
+                    long child = Bitboard.play(position, square);
+                    if (!isOver(child, boardSize))
+                        nextLevel.add(Bitboard.canonical(child, boardSize));
+                    int value = solve(solver, values, child, boardSize);
+                    moveValues[square] = (value == ProofNumberSearch.UNKNOWN) ? value : -value;
+                    unknown |= (value == ProofNumberSearch.UNKNOWN);
+                    if (value != ProofNumberSearch.UNKNOWN)
+                        best = Math.max(best, -value);
+                }
+                if (best == ProofNumberSearch.LOSS || (unknown && best != ProofNumberSearch.WIN))
+                    continue; //unsettled and lost positions are left to the search (which puts a loss off for longest)
+                ArrayList<int[]> moves = new ArrayList<int[]>();
+                for (int square = 0; square < moveValues.length; square++)
+                {
+                    if ((Bitboard.occupied(position) & (1 << square)) != 0 || moveValues[square] != best)
+                        continue;
+                    int numTraps = countLosingReplies(solver, values, position, square, boardSize);
+                    moves.add(new int[] {square, 1 + numTraps});
+                }
+                entries.put(position, moves);
+            }
+            System.out.println("ply " + ply + ": " + level.size() + " positions, " + entries.size() +
+                               " in the book so far, " + values.size() + " solved");
+            level = nextLevel;
+        }
+        return new OpeningBook(boardSize, plies, entries);
+    }
+    
+    /**
+     * @return the result for the player to move in the position (memoized by canonical key)
+     */
+    private static int solve(ProofNumberSearch solver, HashMap<Long, Integer> values, long position, int boardSize)
+    {
+        long key = Bitboard.canonical(position, boardSize);
+        Integer value = values.get(key);
+        if (value == null)
+        {
+            value = solver.solve(key);
+            values.put(key, value);
+        }
+        return value;
+    }
+    
+    /**
+     * @return the number of the opponent's replies to the move that lose for them
+     */
+    private static int countLosingReplies(ProofNumberSearch solver, HashMap<Long, Integer> values, long position,
+                                          int square, int boardSize)
+    {
+        long child = Bitboard.play(position, square);
+        if (isOver(child, boardSize))
+            return 0;
+        int numLosing = 0;
+        for (int reply = 0; reply < boardSize * boardSize; reply++)
+        {
+            if ((Bitboard.occupied(child) & (1 << reply)) == 0 &&
+                solve(solver, values, Bitboard.play(child, reply), boardSize) == ProofNumberSearch.WIN)
+                numLosing++;
+        }
+        return numLosing;
+    }
+    
+    /**
+     * Builds a book from self-play statistics (see the class comment)
+     */
+    public static OpeningBook selfPlay(int plies, int numGames)
+    {
+        int boardSize = Game.BOARD_SIZE, numSquares = Game.NUM_SQUARES;
+        HashMap<Long, int[]> stats = new HashMap<Long, int[]>(); //canonical key -> {games, points} per square
+        Game engine = new Game(); //plays whichever side is to move in the position it's given
+        engine.setWarmupWait(0);
+        Random random = new Random();
+        long[] openingKeys = new long[plies];
+        int[] openingSquares = new int[plies];
+        for (int game = 0; game < numGames; game++)
+        {
+            long position = Bitboard.EMPTY;
+            int numOpeningMoves = 0;
+            while (!isOver(position, boardSize))
+            {
+                if (numOpeningMoves < plies)
+                {
+                    int square;
+                    do
+                    {
+                        square = random.nextInt(numSquares);
+                    } while ((Bitboard.occupied(position) & (1 << square)) != 0);
+                    int symmetry = canonicalSymmetry(position, boardSize);
+                    openingKeys[numOpeningMoves] = Bitboard.transform(position, symmetry, boardSize);
+                    openingSquares[numOpeningMoves] = Bitboard.transformSquare(square, symmetry, boardSize);
+                    numOpeningMoves++;
+                    position = Bitboard.play(position, square);
+                }
+                else
+                {
+                    engine.setPosition(Bitboard.toField(position, boardSize));
+                    engine.enemyMove();
+                    position = Bitboard.fromField(engine.curFieldToString());
+                }
+            }
+            int xResult = Bitboard.hasLine(Bitboard.xPieces(position), boardSize) ? 1 :
+                          Bitboard.hasLine(Bitboard.oPieces(position), boardSize) ? -1 : 0;
+            for (int i = 0; i < numOpeningMoves; i++)
+            {
+                int[] moveStats = stats.computeIfAbsent(openingKeys[i], k -> new int[2 * numSquares]);
+                int points = 1 + (Bitboard.isXToMove(openingKeys[i]) ? xResult : -xResult);
+                moveStats[2 * openingSquares[i]]++;
+                moveStats[2 * openingSquares[i] + 1] += points;
+            }
+        }
+        TreeMap<Long, ArrayList<int[]>> entries = new TreeMap<Long, ArrayList<int[]>>();
+        for (Map.Entry<Long, int[]> entry : stats.entrySet())
+        {
+            int[] moveStats = entry.getValue();
+            double best = -1;
+            for (int square = 0; square < numSquares; square++)
+            {
+                if (moveStats[2 * square] >= SELF_PLAY_MIN_GAMES)
+                    best = Math.max(best, (double)moveStats[2 * square + 1] / moveStats[2 * square]);
+            }
+            ArrayList<int[]> moves = new ArrayList<int[]>();
+            for (int square = 0; square < numSquares; square++)
+            {
+                if (moveStats[2 * square] >= SELF_PLAY_MIN_GAMES &&
+                    (double)moveStats[2 * square + 1] / moveStats[2 * square] >= best - SELF_PLAY_TOLERANCE)
+                    moves.add(new int[] {square, moveStats[2 * square + 1]});
+            }
+            if (!moves.isEmpty())
+                entries.put(entry.getKey(), moves);
+        }
+        System.out.println(numGames + " games, " + stats.size() + " positions seen, " + entries.size() +
+                           " in the book");
+        return new OpeningBook(boardSize, plies, entries);
+    }
+    
+    public int getBoardSize() {return boardSize;}
+    public int getPlies() {return plies;}
+    public int size() {return keys.length;}
+    
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length >= 2 && args[0].equals("show"))
+        {
+            OpeningBook book = load(new File(args[1]));
+            System.out.println(book.size() + " positions with fewer than " + book.plies + " pieces on " +
+                               book.boardSize + "x" + book.boardSize);
+            for (int i = 0; i < book.size(); i++)
+            {
+                StringBuilder moves = new StringBuilder();
+                for (int m = book.firstMoves[i]; m < book.firstMoves[i + 1]; m++)
+                    moves.append(' ').append(book.squares[m]).append('x').append(book.weights[m]);
+                System.out.println(Bitboard.toField(book.keys[i], book.boardSize) + moves);
+            }
+            return;
+        }
+        if (args.length < 3 || !(args[0].equals("search") || args[0].equals("selfplay")))
+        {
+            System.out.println("Usage: java OpeningBook search <plies> <file> [node budget per yes/no search]");
+            System.out.println("       java OpeningBook selfplay <plies> <file> [games]");
+            System.out.println("       java OpeningBook show <file>");
+            return;
+        }
+        int plies = Integer.parseInt(args[1]);
+        long start = System.nanoTime();
+        OpeningBook book;
+        if (args[0].equals("search"))
+            book = search(Game.BOARD_SIZE, plies, (args.length > 3) ? Long.parseLong(args[3]) :
+                                                                      Game.SOLVER_NODE_BUDGET);
+        else
+            book = selfPlay(plies, (args.length > 3) ? Integer.parseInt(args[3]) : DEFAULT_SELF_PLAY_GAMES);
+        book.write(new File(args[2]));
+        System.out.println("Wrote " + book.size() + " positions to " + args[2] + " (" + new File(args[2]).length() +
+                           " bytes) in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,295 @@
+/**
+ * Perft-style enumerator of the game tree, for validating move generation/terminal detection and for
+ * benchmarking raw move generation speed
+ *
+ * For every depth (number of moves after the start position) it counts:
+ *   nodes  - move sequences of that length (every path counted separately, like chess perft)
+ *   X wins, O wins, ties - how many of those sequences end the game on their last move
+ *   unique - distinct positions at that depth (transposition-aware; only with the "unique" option)
+ * Finished games are not expanded further
+ *
+ * Two move generators can be enumerated:
+ *   bitboard - the Bitboard rules the solvers use
+ *   game     - Game's own findPossibleMoves/scoreField on field strings (board size must be Game.BOARD_SIZE)
+ * "validate" runs both and reports every depth where they disagree
+ * From the empty 3x3 board, the counts are also checked against the known values (255,168 games,
+ * 5,478 legal positions)
+ *
+ * Usage: java Perft <board size> [max depth] [start field] [bitboard|game|validate] [parallel] [unique]
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class Perft
+{
+    public static final int NODES = 0, X_WINS = 1, O_WINS = 2, TIES = 3; //columns of the counts table
+    private static final int PARALLEL_DEPTH = 2; //plies that are split into fork/join tasks
+    
+    //Known values for the empty 3x3 board
+    private static final long[] KNOWN_3X3_NODES = {1, 9, 72, 504, 3024, 15120, 54720, 148176, 200448, 127872};
+    private static final long KNOWN_3X3_GAMES = 255168;
+    private static final long KNOWN_3X3_X_WINS = 131184, KNOWN_3X3_O_WINS = 77904, KNOWN_3X3_TIES = 46080;
+    private static final long KNOWN_3X3_POSITIONS = 5478;
+    
+    private final int boardSize;
+    private final int fullBoard;
+    private final int maxDepth;
+    private final Game game; //only for the game move generator
+    
+    public Perft(int boardSize, int maxDepth, boolean useGame)
+    {
+        if (useGame && boardSize != Game.BOARD_SIZE)
+            throw new IllegalArgumentException("Game's move generator only handles " + Game.BOARD_SIZE + "x" +
+                                               Game.BOARD_SIZE + " boards (set -Dtictactoe.boardSize)");
+        this.boardSize = boardSize;
+        fullBoard = Bitboard.fullBoard(boardSize);
+        this.maxDepth = maxDepth;
+        game = useGame ? new Game() : null;
+    }
+    
+    /**
+     * @return counts[depth][NODES/X_WINS/O_WINS/TIES]
+     */
+    public long[][] count(long start, boolean parallel)
+    {
+        long[][] counts = new long[maxDepth + 1][4];
+        counts[0][NODES] = 1;
+        if (parallel)
+            add(counts, ForkJoinPool.commonPool().invoke(new PerftTask(start, 0)));
+        else if (game != null)
+            countGame(Bitboard.toField(start, boardSize), Bitboard.numPieces(start), 0, counts);
+        else
+            countBitboard(start, 0, counts);
+        return counts;
+    }
+    
+    private void countBitboard(long position, int depth, long[][] counts)
+    {
+        if (depth == maxDepth)
+            return;
+        for (int squares = ~Bitboard.occupied(position) & fullBoard; squares != 0; squares &= squares - 1)
+        {
+            long child = Bitboard.play(position, Integer.numberOfTrailingZeros(squares));
+            counts[depth + 1][NODES]++;
+            if (Bitboard.hasLine(Bitboard.lastMoverPieces(child), boardSize))
+                counts[depth + 1][Bitboard.isXToMove(child) ? O_WINS : X_WINS]++;
+            else if (Bitboard.occupied(child) == fullBoard)
+                counts[depth + 1][TIES]++;
+            else
+                countBitboard(child, depth + 1, counts);
+        }
+    }
+    
+    private void countGame(String field, int turn, int depth, long[][] counts)
+    {
+        if (depth == maxDepth)
+            return;
+        ArrayList<String> children = game.findPossibleMoves(field, turn);
+        for (int i = 0; i < children.size(); i++)
+        {
+            int score = game.scoreField(children.get(i));
+            counts[depth + 1][NODES]++;
+            if (score == Game.MAX_SCORE)
+                counts[depth + 1][X_WINS]++;
+            else if (score == -Game.MAX_SCORE)
+                counts[depth + 1][O_WINS]++;
+            else if (score == Game.TIE_SCORE)
+                counts[depth + 1][TIES]++;
+            else
+                countGame(children.get(i), turn + 1, depth + 1, counts);
+        }
+    }
+    
+    /**
+     * Splits the first PARALLEL_DEPTH plies into tasks, then counts each subtree sequentially
+     * (Game isn't thread-safe, so the parallel mode always uses the bitboard generator)
+     */
+    private class PerftTask extends RecursiveTask<long[][]>
+    {
+        private static final long serialVersionUID = 1L;
+        private final long position;
+        private final int depth;
+        
+        PerftTask(long position, int depth)
+        {
+            this.position = position;
+            this.depth = depth;
+        }
+        
+        protected long[][] compute()
+        {
+            long[][] counts = new long[maxDepth + 1][4];
+            if (depth >= PARALLEL_DEPTH || depth == maxDepth)
+            {
+                countBitboard(position, depth, counts);
+                return counts;
+            }
+            ArrayList<PerftTask> tasks = new ArrayList<PerftTask>();
+            for (int squares = ~Bitboard.occupied(position) & fullBoard; squares != 0; squares &= squares - 1)
+            {
+                long child = Bitboard.play(position, Integer.numberOfTrailingZeros(squares));
+                counts[depth + 1][NODES]++;
+                if (Bitboard.hasLine(Bitboard.lastMoverPieces(child), boardSize))
+                    counts[depth + 1][Bitboard.isXToMove(child) ? O_WINS : X_WINS]++;
+                else if (Bitboard.occupied(child) == fullBoard)
+                    counts[depth + 1][TIES]++;
+                else
+                    tasks.add(new PerftTask(child, depth + 1));
+            }
+            invokeAll(tasks);
+            for (PerftTask task : tasks)
+                add(counts, task.join());
+            return counts;
+        }
+    }
+    
+    /**
+     * Transposition-aware count: the number of distinct positions at each depth (a level-by-level search that
+     * keeps one copy of every position)
+     */
+    public long[] countUnique(long start)
+    {
+        long[] unique = new long[maxDepth + 1];
+        HashSet<Long> level = new HashSet<Long>();
+        level.add(start);
+        unique[0] = 1;
+        for (int depth = 1; depth <= maxDepth && !level.isEmpty(); depth++)
+        {
+            HashSet<Long> next = new HashSet<Long>();
+            for (long position : level)
+            {
+                if (Bitboard.hasLine(Bitboard.lastMoverPieces(position), boardSize) ||
+                    Bitboard.occupied(position) == fullBoard)
+                    continue;
+                for (int squares = ~Bitboard.occupied(position) & fullBoard; squares != 0; squares &= squares - 1)
+                    next.add(Bitboard.play(position, Integer.numberOfTrailingZeros(squares)));
+            }
+            unique[depth] = next.size();
+            level = next;
+        }
+        return unique;
+    }
+    
+    private static void add(long[][] total, long[][] counts)
+    {
+        for (int i = 0; i < total.length; i++)
+        {
+            for (int j = 0; j < 4; j++)
+                total[i][j] += counts[i][j];
+        }
+    }
+    
+    private static long sum(long[][] counts, int column, int fromDepth)
+    {
+        long total = 0;
+        for (int i = fromDepth; i < counts.length; i++)
+            total += counts[i][column];
+        return total;
+    }
+    
+    /**
+     * @return a description of every mismatch with the known 3x3 values (empty if there are none)
+     */
+    private static ArrayList<String> checkKnown3x3(long[][] counts, long[] unique)
+    {
+        ArrayList<String> errors = new ArrayList<String>();
+        for (int i = 0; i < counts.length && i < KNOWN_3X3_NODES.length; i++)
+        {
+            if (counts[i][NODES] != KNOWN_3X3_NODES[i])
+                errors.add("depth " + i + ": " + counts[i][NODES] + " nodes, expected " + KNOWN_3X3_NODES[i]);
+        }
+        if (counts.length == KNOWN_3X3_NODES.length)
+        {
+            long games = sum(counts, X_WINS, 1) + sum(counts, O_WINS, 1) + sum(counts, TIES, 1);
+            if (games != KNOWN_3X3_GAMES || sum(counts, X_WINS, 1) != KNOWN_3X3_X_WINS ||
+                sum(counts, O_WINS, 1) != KNOWN_3X3_O_WINS || sum(counts, TIES, 1) != KNOWN_3X3_TIES)
+                errors.add("finished games: " + games + " (" + sum(counts, X_WINS, 1) + "/" +
+                           sum(counts, O_WINS, 1) + "/" + sum(counts, TIES, 1) + "), expected " + KNOWN_3X3_GAMES +
+                           " (" + KNOWN_3X3_X_WINS + "/" + KNOWN_3X3_O_WINS + "/" + KNOWN_3X3_TIES + ")");
+            long positions = 0;
+            for (long n : (unique != null) ? unique : new long[0])
+                positions += n;
+            if (unique != null && positions != KNOWN_3X3_POSITIONS)
+                errors.add(positions + " distinct positions, expected " + KNOWN_3X3_POSITIONS);
+        }
+        return errors;
+    }
+    
+    private static void print(long[][] counts, long[] unique)
+    {
+        System.out.println(String.format("%5s %14s %12s %12s %12s %12s", "depth", "nodes", "X wins", "O wins",
+                                         "ties", "unique"));
+        for (int i = 0; i < counts.length; i++)
+        {
+            System.out.println(String.format("%5d %14d %12d %12d %12d %12s", i, counts[i][NODES], counts[i][X_WINS],
+                                             counts[i][O_WINS], counts[i][TIES],
+                                             (unique != null) ? "" + unique[i] : "-"));
+        }
+        System.out.println(String.format("%5s %14d %12d %12d %12d", "total", sum(counts, NODES, 0),
+                                         sum(counts, X_WINS, 0), sum(counts, O_WINS, 0), sum(counts, TIES, 0)));
+    }
+    
+    public static void main(String[] args)
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: java Perft <board size> [max depth] [start field] " +
+                               "[bitboard|game|validate] [parallel] [unique]");
+            return;
+        }
+        int boardSize = Integer.parseInt(args[0]);
+        int maxDepth = (args.length > 1) ? Integer.parseInt(args[1]) : boardSize * boardSize;
+        String field = (args.length > 2 && !args[2].equals("-")) ? args[2] : null;
+        long start = (field != null) ? Bitboard.fromField(field) : Bitboard.EMPTY;
+        maxDepth = Math.min(maxDepth, boardSize * boardSize - Bitboard.numPieces(start));
+        String generator = (args.length > 3) ? args[3] : "bitboard";
+        boolean parallel = Arrays.asList(args).contains("parallel");
+        boolean countUnique = Arrays.asList(args).contains("unique");
+        
+        Perft perft = new Perft(boardSize, maxDepth, generator.equals("game"));
+        long begin = System.nanoTime();
+        long[][] counts = perft.count(start, parallel && !generator.equals("game"));
+        long elapsed = System.nanoTime() - begin;
+        long[] unique = countUnique ? perft.countUnique(start) : null;
+        print(counts, unique);
+        long nodes = sum(counts, NODES, 1);
+        System.out.println(generator + (parallel ? " (parallel)" : "") + ": " + nodes + " nodes in " +
+                           elapsed / 1000000 + " ms, " + (long)(nodes / (elapsed / 1e9)) + " nodes/s");
+        
+        boolean ok = true;
+        if (generator.equals("validate"))
+        {
+            begin = System.nanoTime();
+            long[][] gameCounts = new Perft(boardSize, maxDepth, true).count(start, false);
+            elapsed = System.nanoTime() - begin;
+            System.out.println("game: " + nodes + " nodes in " + elapsed / 1000000 + " ms, " +
+                               (long)(nodes / (elapsed / 1e9)) + " nodes/s");
+            for (int i = 0; i <= maxDepth; i++)
+            {
+                if (!Arrays.equals(counts[i], gameCounts[i]))
+                {
+                    System.out.println("MISMATCH at depth " + i + ": bitboard " + Arrays.toString(counts[i]) +
+                                       ", game " + Arrays.toString(gameCounts[i]));
+                    ok = false;
+                }
+            }
+            if (ok)
+                System.out.println("Game's move generator and win detection agree with the bitboard rules");
+        }
+        if (boardSize == 3 && start == Bitboard.EMPTY)
+        {
+            ArrayList<String> errors = checkKnown3x3(counts, unique);
+            for (String error : errors)
+                System.out.println("MISMATCH with known 3x3 counts: " + error);
+            if (errors.isEmpty())
+                System.out.println("Matches the known 3x3 counts");
+            ok &= errors.isEmpty();
+        }
+        if (!ok)
+            System.exit(1);
+    }
+}
\ No newline at end of file
@@ -8,6 +8,7 @@ public class PlayGame
      */
     public static void playGame()
     {
+        EngineWarmup.start(); //runs while the window comes up
         SwingUtilities.invokeLater(new Runnable() {
             public void run()
             {
@@ -43,6 +44,7 @@ public class PlayGame
     
     public static void playGameAsPlayer2()
     {
+        EngineWarmup.start(); //runs while the window comes up
         SwingUtilities.invokeLater(new Runnable() {
             public void run()
             {
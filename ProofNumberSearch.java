@@ -0,0 +1,553 @@
+/**
+ * Depth-first proof-number (df-pn) solver for 3x3, 4x4, and 5x5 boards
+ *
+ * Proof-number search only answers yes/no questions, so a position is solved with up to two of them:
+ *   1) can the player to move force a win?                 yes -> WIN
+ *   2) if not, can the player to move at least force a tie? yes -> TIE, no -> LOSS
+ * The second one is searched as "can the opponent force a win?" with the answer turned around, so every
+ * search is for a win, and the two questions, the searches for each candidate move, and the searches of later
+ * moves all share their table entries
+ * Each search grows the tree towards the node that's cheapest to prove (or disprove), which proves forced
+ * results after far fewer nodes than exhaustive minimax
+ *
+ * Nodes are kept in a fixed-size transposition table (its size is given in MB), so memory use is bounded no
+ * matter how long the search runs. Each position hashes to a bucket of two slots, and when both are taken the
+ * entry with the smaller subtree is replaced, which only costs some re-searching. A search gives up with
+ * UNKNOWN once it has expanded nodeBudget nodes, and a whole solve()/findBestMove() call once it has expanded
+ * moveNodeBudget nodes over all its searches
+ *
+ * The table is kept between calls, so after the opponent's reply the subtree below the new position is still
+ * there with its proof and disproof numbers, and the next search starts from them. Entries for positions that
+ * can't arise from the new root any more (the siblings of the moves played) are the first to be replaced
+ * ("java ProofNumberSearch reuse" measures the nodes this saves over a game)
+ *
+ * Positions whose result the remaining lines already decide are never searched: a player with no line left
+ * that they could complete in the moves they have can't win, so the win question is answered no, and the tie
+ * question yes once the opponent is in that state (getDeadPositions() counts these cutoffs)
+ * Immediate threats end the search too: a player to move who can complete a line wins, and one who can't but
+ * faces two squares where the opponent would (a fork) loses
+ */
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ProofNumberSearch
+{
+    //Results, from the point of view of the player to move
+    public static final int WIN = 1;
+    public static final int TIE = 0;
+    public static final int LOSS = -1;
+    public static final int UNKNOWN = 2;
+    
+    private static final int INFINITY = 100000000; //proof/disproof number of a disproven/proven node
+    private static final int GOAL_WIN = 0; //the player to move tries to complete a line
+    private static final int GOAL_NOT_LOSE = 1; //the player to move tries to complete a line or fill the board
+    private static final int ENTRY_BYTES = 20; //key + proof number + disproof number + subtree size
+    private static final long PROGRESS_INTERVAL = 1000000; //nodes between progress reports
+    private static final int REUSE_OPPONENT_TABLE_SIZE_MB = 16; //for the opponent in "reuse" games
+    private static final int REUSE_RANDOM_MOVE_ODDS = 4; //1 in this many opponent moves are random
+    
+    private final int boardSize;
+    private final int fullBoard;
+    private final long[] keys; //stored as ~key so that 0 means an empty slot
+    private final int[] proofNumbers;
+    private final int[] disproofNumbers;
+    private final int[] subtreeSizes; //nodes searched below each entry, so replacement keeps the bigger subtrees
+    private final int numBuckets;
+    private long nodeBudget = Long.MAX_VALUE; //nodes per yes/no search
+    private long moveNodeBudget = Long.MAX_VALUE; //nodes per solve()/findBestMove() call, over all its searches
+    private long callBudget; //what's left of moveNodeBudget for the current call is callBudget - nodesSearched
+    private long timeLimit; //milliseconds per solve()/findBestMove() call, 0 for no limit
+    private long deadline; //System.nanoTime() when the current call has to stop, 0 for none
+    private long nodesSearched; //since the last solve() or findBestMove() call
+    private long searchNodes; //in the current yes/no search
+    private long searchBudget; //nodes for the current yes/no search
+    private boolean aborted;
+    private PrintStream progressOutput; //null if progress shouldn't be reported
+    private long searchStartTime;
+    private long evictions; //table entries replaced by a different position
+    private long root; //the position of the current solve() or findBestMove() call
+    private long deadPositions; //positions decided without a search since the last solve() or findBestMove()
+    
+    /**
+     * @param tableSizeMB - the memory used for the node table
+     */
+    public ProofNumberSearch(int boardSize, int tableSizeMB)
+    {
+        if (boardSize < 1 || boardSize > Bitboard.MAX_BOARD_SIZE)
+            throw new IllegalArgumentException("Board size must be between 1 and " + Bitboard.MAX_BOARD_SIZE);
+        this.boardSize = boardSize;
+        fullBoard = Bitboard.fullBoard(boardSize);
+        long tableBytes = (long)tableSizeMB * 1024 * 1024;
+        numBuckets = (int)Math.min(1 << 29, Math.max(1, tableBytes / (2 * ENTRY_BYTES)));
+        int numEntries = 2 * numBuckets;
+        keys = new long[numEntries];
+        proofNumbers = new int[numEntries];
+        disproofNumbers = new int[numEntries];
+        subtreeSizes = new int[numEntries];
+    }
+    
+    /**
+     * Solves a position in Game's field string format
+     * @return WIN, TIE, or LOSS for the player to move, or UNKNOWN if the node budget ran out
+     */
+    public int solve(String field) {return solve(Bitboard.fromField(field));}
+    
+    public int solve(long position)
+    {
+        root = position;
+        startClock();
+        nodesSearched = 0;
+        deadPositions = 0;
+        callBudget = moveNodeBudget;
+        return solvePosition(position);
+    }
+    
+    private int solvePosition(long position)
+    {
+        int terminal = terminalResult(position);
+        if (terminal != UNKNOWN)
+            return terminal;
+        boolean xToMove = Bitboard.isXToMove(position);
+        int canWin = isDecided(position, xToMove) ? LOSS : prove(position, GOAL_WIN);
+        if (canWin != UNKNOWN && canWin != LOSS)
+            return WIN;
+        int canTie = isDecided(position, !xToMove) ? WIN : prove(position, GOAL_NOT_LOSE);
+        if (canWin == UNKNOWN)
+            return (canTie == LOSS) ? LOSS : UNKNOWN; //if even a tie is impossible, a win is too
+        return (canTie == UNKNOWN) ? UNKNOWN : (canTie == WIN) ? TIE : LOSS;
+    }
+    
+    /**
+     * Picks the move with the best proven result (WIN > TIE > UNKNOWN > LOSS)
+     * The position itself is solved first, so the search can stop at the first move that achieves its value
+     * If the position's value isn't known, the moves are searched until the move node budget or the time limit
+     * runs out (once the value is known, finding a move that achieves it is left unbudgeted)
+     * @return the field after the chosen move
+     *         null if the game is already over, or if the budget ran out before a move was found that isn't a
+     *         proven loss (the caller has to choose a move some cheaper way)
+     */
+    public String findBestMove(String field)
+    {
+        long position = Bitboard.fromField(field);
+        if (terminalResult(position) != UNKNOWN)
+            return null;
+        root = position;
+        startClock();
+        nodesSearched = 0;
+        deadPositions = 0;
+        callBudget = moveNodeBudget;
+        int rootResult = solvePosition(position);
+        if (rootResult != UNKNOWN)
+            callBudget = Long.MAX_VALUE;
+        int bestSquare = -1, bestRank = Integer.MIN_VALUE;
+        boolean outOfBudget = false;
+        for (int square = 0; square < boardSize * boardSize; square++)
+        {
+            if ((Bitboard.occupied(position) & (1 << square)) != 0)
+                continue;
+            if (rootResult == UNKNOWN && isCallOutOfBudget())
+            {
+                outOfBudget = true;
+                break;
+            }
+            int replyResult = solvePosition(Bitboard.play(position, square));
+            int result = (replyResult == UNKNOWN) ? UNKNOWN : -replyResult;
+            int rank = (result == UNKNOWN) ? 0 : (result == LOSS) ? -2 : result + 1; //UNKNOWN ranks between
+                                                                                     //TIE and LOSS
+            if (rank > bestRank)
+            {
+                bestRank = rank;
+                bestSquare = square;
+            }
+            if (rootResult != UNKNOWN && result == rootResult)
+                break;
+        }
+        if (outOfBudget && bestRank < 0)
+            return null;
+        return Bitboard.toField(Bitboard.play(position, bestSquare), boardSize);
+    }
+    
+    /**
+     * Answers one yes/no question for the player to move
+     * @return WIN if the goal can be forced, LOSS if it can't, UNKNOWN if the budget ran out
+     */
+    private int prove(long position, int goal)
+    {
+        int mover = Bitboard.isXToMove(position) ? 0 : 1;
+        int attacker = (goal == GOAL_WIN) ? mover : 1 - mover; //the player trying to win
+        searchNodes = 0;
+        searchBudget = Math.min(nodeBudget, callBudget - nodesSearched);
+        aborted = false;
+        searchStartTime = System.nanoTime();
+        long numbers = mid(position, attacker, INFINITY - 1, INFINITY - 1);
+        nodesSearched += searchNodes;
+        if (proofNumber(numbers) == 0)
+            return (attacker == mover) ? WIN : LOSS;
+        if (disproofNumber(numbers) == 0)
+            return (attacker == mover) ? LOSS : WIN;
+        return UNKNOWN;
+    }
+    
+    /**
+     * The df-pn "multiple iterative deepening" step: keeps searching below position until its proof number
+     * reaches proofThreshold or its disproof number reaches disproofThreshold
+     * The children's numbers are looked up once, and afterwards only the child just searched is updated (from
+     * what mid returned): re-reading them from the table every iteration could loop forever when two siblings
+     * keep replacing each other in the same slot
+     * @return the position's proof and disproof numbers, packed by numbers()
+     */
+    private long mid(long position, int attacker, int proofThreshold, int disproofThreshold)
+    {
+        if (++searchNodes > searchBudget || (deadline != 0 && (searchNodes & 1023) == 0 &&
+                                             System.nanoTime() > deadline))
+        {
+            aborted = true;
+            return numbers(1, 1);
+        }
+        long startNodes = searchNodes;
+        if (progressOutput != null && searchNodes % PROGRESS_INTERVAL == 0)
+            reportProgress();
+        
+        boolean orNode = (Bitboard.isXToMove(position) ? 0 : 1) == attacker;
+        int empty = ~Bitboard.occupied(position) & fullBoard;
+        long[] children = new long[Integer.bitCount(empty)];
+        for (int i = 0, squares = empty; squares != 0; i++, squares &= squares - 1)
+        {
+            children[i] = Bitboard.play(position, Integer.numberOfTrailingZeros(squares));
+        }
+        int[] childProof = new int[children.length], childDisproof = new int[children.length];
+        for (int i = 0; i < children.length; i++)
+            lookupChild(children[i], attacker, childProof, childDisproof, i);
+        
+        int proof = 0, disproof = 0;
+        while (!aborted)
+        {
+            //collect the children's current numbers and combine them
+            int best = -1, bestValue = INFINITY + 1, secondValue = INFINITY + 1;
+            proof = orNode ? INFINITY : 0;
+            disproof = orNode ? 0 : INFINITY;
+            for (int i = 0; i < children.length; i++)
+            {
+                if (orNode)
+                {
+                    proof = Math.min(proof, childProof[i]);
+                    disproof = Math.min(INFINITY, disproof + childDisproof[i]);
+                }
+                else
+                {
+                    proof = Math.min(INFINITY, proof + childProof[i]);
+                    disproof = Math.min(disproof, childDisproof[i]);
+                }
+                int value = orNode ? childProof[i] : childDisproof[i];
+                if (value < bestValue)
+                {
+                    secondValue = bestValue;
+                    bestValue = value;
+                    best = i;
+                }
+                else if (value < secondValue)
+                    secondValue = value;
+            }
+            if (proof >= proofThreshold || disproof >= disproofThreshold || proof == 0 || disproof == 0)
+                break;
+            
+            //descend into the most promising child with thresholds that send the search back up as soon as
+            //another child becomes more promising
+            long numbers;
+            if (orNode)
+                numbers = mid(children[best], attacker, Math.min(proofThreshold, secondValue + 1),
+                              disproofThreshold - disproof + childDisproof[best]);
+            else
+                numbers = mid(children[best], attacker, proofThreshold - proof + childProof[best],
+                              Math.min(disproofThreshold, secondValue + 1));
+            childProof[best] = proofNumber(numbers);
+            childDisproof[best] = disproofNumber(numbers);
+        }
+        store(key(position, attacker), proof, disproof, searchNodes - startNodes + 1);
+        return numbers(proof, disproof);
+    }
+    
+    private static long numbers(int proof, int disproof) {return ((long)proof << 32) | disproof;}
+    private static int proofNumber(long numbers) {return (int)(numbers >>> 32);}
+    private static int disproofNumber(long numbers) {return (int)numbers;}
+    
+    /**
+     * Fills in a child's proof and disproof numbers (for the attacker winning): exact ones for finished games,
+     * stored ones for positions in the table, and (1, 1) for positions that haven't been searched yet
+     */
+    private void lookupChild(long child, int attacker, int[] childProof, int[] childDisproof, int i)
+    {
+        int lastMover = Bitboard.isXToMove(child) ? 1 : 0;
+        if (Bitboard.hasLine(Bitboard.lastMoverPieces(child), boardSize))
+        {
+            boolean attackerWon = (lastMover == attacker);
+            childProof[i] = attackerWon ? 0 : INFINITY;
+            childDisproof[i] = attackerWon ? INFINITY : 0;
+            return;
+        }
+        int slot = find(key(child, attacker));
+        if (Bitboard.occupied(child) == fullBoard || (slot < 0 && isDecided(child, attacker == 0)))
+        {
+            childProof[i] = INFINITY; //a tie, or the attacker can't complete a line any more
+            childDisproof[i] = 0;
+            return;
+        }
+        int winner = (slot < 0) ? forcedWinner(child) : -1;
+        if (winner >= 0)
+        {
+            childProof[i] = (winner == attacker) ? 0 : INFINITY;
+            childDisproof[i] = (winner == attacker) ? INFINITY : 0;
+            return;
+        }
+        childProof[i] = (slot >= 0) ? proofNumbers[slot] : 1;
+        childDisproof[i] = (slot >= 0) ? disproofNumbers[slot] : 1;
+    }
+    
+    /**
+     * @return the player (0 = X, 1 = O) whose win the immediate threats force, -1 if they don't decide the position
+     */
+    private int forcedWinner(long position)
+    {
+        int mover = Bitboard.isXToMove(position) ? 0 : 1;
+        int moverPieces = Bitboard.moverPieces(position), otherPieces = Bitboard.lastMoverPieces(position);
+        if (Bitboard.winningSquares(moverPieces, otherPieces, boardSize) != 0)
+            return mover;
+        if (Integer.bitCount(Bitboard.winningSquares(otherPieces, moverPieces, boardSize)) >= 2)
+            return 1 - mover;
+        return -1;
+    }
+    
+    /**
+     * Counts a dead position cutoff if the player (X if x is true) can no longer complete any line
+     */
+    private boolean isDecided(long position, boolean x)
+    {
+        if (Bitboard.canStillWin(position, x, boardSize))
+            return false;
+        deadPositions++;
+        return true;
+    }
+    
+    /**
+     * @return WIN/TIE/LOSS for the player to move if the game is already over, UNKNOWN otherwise
+     */
+    private int terminalResult(long position)
+    {
+        if (Bitboard.hasLine(Bitboard.lastMoverPieces(position), boardSize))
+            return LOSS;
+        if (Bitboard.occupied(position) == fullBoard)
+            return TIE;
+        return UNKNOWN;
+    }
+    
+    //Node table
+    private long key(long position, int attacker)
+    {
+        return position | ((long)attacker << 61);
+    }
+    
+    /**
+     * @return the first slot of the key's bucket (the other one follows it)
+     */
+    private int bucketOf(long key)
+    {
+        long h = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL; //MurmurHash3's finalizer: every key bit (the O
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;          //pieces and the search bits in the high half
+        h ^= h >>> 33;                                       //too) affects the bucket
+        return 2 * (int)(((h >>> 32) * numBuckets) >>> 32); //scales the top 32 bits to [0, numBuckets)
+    }
+    
+    /**
+     * @return the slot holding the key, -1 if it isn't in the table
+     */
+    private int find(long key)
+    {
+        int bucket = bucketOf(key);
+        if (keys[bucket] == ~key)
+            return bucket;
+        return (keys[bucket + 1] == ~key) ? bucket + 1 : -1;
+    }
+    
+    /**
+     * Stores a node over its own older entry (adding the subtree sizes), or else over the slot of its bucket
+     * that's cheapest to lose
+     */
+    private void store(long key, int proof, int disproof, long subtreeSize)
+    {
+        int slot = find(key);
+        if (slot >= 0)
+            subtreeSize += subtreeSizes[slot];
+        else
+        {
+            int bucket = bucketOf(key);
+            slot = (replacementCost(bucket + 1) < replacementCost(bucket)) ? bucket + 1 : bucket;
+            if (EngineEvents.ENABLED && keys[slot] != 0)
+                evictions++;
+        }
+        keys[slot] = ~key;
+        proofNumbers[slot] = proof;
+        disproofNumbers[slot] = disproof;
+        subtreeSizes[slot] = (int)Math.min(Integer.MAX_VALUE, subtreeSize);
+    }
+    
+    /**
+     * @return -1 for an empty slot or a position that can't arise from the root (it lacks some of the root's
+     *         pieces), otherwise the size of the subtree that would have to be searched again
+     */
+    private long replacementCost(int slot)
+    {
+        if (keys[slot] == 0 || (~keys[slot] & root) != root)
+            return -1;
+        return subtreeSizes[slot];
+    }
+    
+    /**
+     * @return the fraction of the table's slots that are in use
+     */
+    public double getTableUsage()
+    {
+        int used = 0;
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (keys[i] != 0)
+                used++;
+        }
+        return (double)used / keys.length;
+    }
+    
+    /**
+     * Empties the node table (results proven so far are forgotten)
+     */
+    public void clear()
+    {
+        Arrays.fill(keys, 0);
+    }
+    
+    /**
+     * @return true once the current call has used up its move node budget or its time limit
+     */
+    private boolean isCallOutOfBudget()
+    {
+        return nodesSearched >= callBudget || (deadline != 0 && System.nanoTime() > deadline);
+    }
+    
+    private void startClock()
+    {
+        deadline = (timeLimit > 0) ? System.nanoTime() + timeLimit * 1000000 : 0;
+    }
+    
+    private void reportProgress()
+    {
+        double seconds = (System.nanoTime() - searchStartTime) / 1e9;
+        progressOutput.println("df-pn: " + searchNodes + " nodes, " + (long)(searchNodes / seconds) + " nodes/s, " +
+                               "table " + (int)(100 * getTableUsage()) + "% full");
+    }
+    
+    /**
+     * Getters/setters
+     */
+    public int getBoardSize() {return boardSize;}
+    public long getNodesSearched() {return nodesSearched;}
+    public long getDeadPositions() {return deadPositions;}
+    public long getEvictions() {return evictions;} //only counted while EngineEvents are enabled
+    public long getTableBytes() {return (long)keys.length * ENTRY_BYTES;}
+    public long getNodeBudget() {return nodeBudget;}
+    public void setNodeBudget(long nodeBudget) {this.nodeBudget = nodeBudget;}
+    public long getMoveNodeBudget() {return moveNodeBudget;}
+    public void setMoveNodeBudget(long moveNodeBudget) {this.moveNodeBudget = moveNodeBudget;}
+    public void setTimeLimit(long timeLimit) {this.timeLimit = timeLimit;}
+    public void setProgressOutput(PrintStream progressOutput) {this.progressOutput = progressOutput;}
+    
+    /**
+     * Measures the nodes that keeping the table between moves saves: in each game one solver keeps its table
+     * from move to move (like Game's), and every position it moves in is searched again by a solver with an
+     * empty table. The opponent plays the solver's moves too (from an empty table), except for a random move
+     * now and then so that the games differ
+     * The totals leave out the solver's first move of each game, which has nothing to reuse
+     */
+    private static void measureReuse(int boardSize, int numGames, long nodeBudget, int tableSizeMB)
+    {
+        ProofNumberSearch warm = new ProofNumberSearch(boardSize, tableSizeMB);
+        ProofNumberSearch cold = new ProofNumberSearch(boardSize, tableSizeMB);
+        ProofNumberSearch opponent = new ProofNumberSearch(boardSize, REUSE_OPPONENT_TABLE_SIZE_MB);
+        warm.setNodeBudget(nodeBudget);
+        cold.setNodeBudget(nodeBudget);
+        opponent.setNodeBudget(nodeBudget);
+        Random random = new Random(1);
+        long warmNodes = 0, coldNodes = 0;
+        for (int game = 0; game < numGames; game++)
+        {
+            warm.clear();
+            long position = Bitboard.EMPTY;
+            for (int ply = 0; warm.terminalResult(position) == UNKNOWN; ply++)
+            {
+                String field = Bitboard.toField(position, boardSize);
+                if (ply % 2 == game % 2) //the solver plays X in even games and O in odd ones
+                {
+                    position = Bitboard.fromField(warm.findBestMove(field));
+                    cold.clear();
+                    cold.findBestMove(field);
+                    if (ply > 1)
+                    {
+                        warmNodes += warm.getNodesSearched();
+                        coldNodes += cold.getNodesSearched();
+                    }
+                    System.out.println(String.format("game %d, move %2d  %s  %10d nodes, %10d from an empty table " +
+                                                     "(%d saved)", game + 1, ply + 1, field, warm.getNodesSearched(),
+                                                     cold.getNodesSearched(),
+                                                     cold.getNodesSearched() - warm.getNodesSearched()));
+                }
+                else if (random.nextInt(REUSE_RANDOM_MOVE_ODDS) == 0)
+                {
+                    int empty = ~Bitboard.occupied(position) & warm.fullBoard, square;
+                    do
+                    {
+                        square = random.nextInt(boardSize * boardSize);
+                    } while ((empty & (1 << square)) == 0);
+                    position = Bitboard.play(position, square);
+                }
+                else
+                {
+                    opponent.clear();
+                    position = Bitboard.fromField(opponent.findBestMove(field));
+                }
+            }
+        }
+        System.out.println(String.format("%d games, after the first move: %d nodes, %d from empty tables, " +
+                                         "%d (%.1f%%) saved", numGames,
+                                         warmNodes, coldNodes, coldNodes - warmNodes,
+                                         100.0 * (coldNodes - warmNodes) / Math.max(1, coldNodes)));
+    }
+    
+    /**
+     * Solves the position given on the command line, reporting progress as it goes
+     * Usage: java ProofNumberSearch <field, e.g. ________________> [table size in MB] [node budget]
+     *        java ProofNumberSearch reuse <board size> [games] [node budget] [table size in MB]
+     * "reuse" plays games to measure what keeping the table between moves saves (see measureReuse)
+     */
+    public static void main(String[] args)
+    {
+        if (args[0].equals("reuse"))
+        {
+            measureReuse(Integer.parseInt(args[1]), (args.length > 2) ? Integer.parseInt(args[2]) : 4,
+                         (args.length > 3) ? Long.parseLong(args[3]) : Game.SOLVER_NODE_BUDGET,
+                         (args.length > 4) ? Integer.parseInt(args[4]) : 64);
+            return;
+        }
+        String field = args[0];
+        int boardSize = (int)Math.round(Math.sqrt(field.length()));
+        int tableSizeMB = (args.length > 1) ? Integer.parseInt(args[1]) : 256;
+        ProofNumberSearch solver = new ProofNumberSearch(boardSize, tableSizeMB);
+        if (args.length > 2)
+            solver.setNodeBudget(Long.parseLong(args[2]));
+        solver.setProgressOutput(System.out);
+        long start = System.nanoTime();
+        int result = solver.solve(field);
+        String[] names = {"loss", "tie", "win", "unknown"};
+        System.out.println(field + ": " + names[result + 1] + " for the player to move (" +
+                           solver.getNodesSearched() + " nodes, " + (System.nanoTime() - start) / 1000000 + " ms, " +
+                           solver.getDeadPositions() + " dead positions cut)");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,274 @@
+/**
+ * Solves every position of a board size with several worker JVMs on one machine and builds one tablebase
+ *
+ * The position space is split by opening prefix: every symmetry-distinct, unfinished position with splitDepth
+ * pieces becomes part of a work unit, written as a text file of field strings to <work directory>/units
+ * Workers (see SolveWorker) are started as separate processes that share nothing but the work directory
+ * The coordinator restarts workers that die and puts the units they had claimed back in the queue
+ * Once every unit is solved, the partial result files are merged, the positions above the split depth are
+ * solved from the merged results (looked up in the merged file itself, see Tablebase.open, so they never have
+ * to fit in the coordinator's heap), and everything is written to the output tablebase
+ *
+ * Usage: java SolveCoordinator <board size> <number of workers> <split depth> <work directory> <output file>
+ * The worker heap size can be set with -Dtictactoe.workerHeap (default 2g)
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+public class SolveCoordinator
+{
+    private static final int UNITS_PER_WORKER = 4; //more units than workers keeps them all busy to the end
+    private static final int MAX_RESTARTS = 10; //over the whole run, so a broken setup doesn't loop forever
+    private static final long POLL_INTERVAL_MS = 200;
+    
+    private final int boardSize;
+    private final int numWorkers;
+    private final int splitDepth;
+    private final File workDir, unitsDir, resultsDir;
+    private final String workerHeap = System.getProperty("tictactoe.workerHeap", "2g");
+    private final Process[] workers;
+    private int numRestarts;
+    
+    public SolveCoordinator(int boardSize, int numWorkers, int splitDepth, File workDir)
+    {
+        this.boardSize = boardSize;
+        this.numWorkers = numWorkers;
+        this.splitDepth = splitDepth;
+        this.workDir = workDir;
+        unitsDir = new File(workDir, "units");
+        resultsDir = new File(workDir, "results");
+        workers = new Process[numWorkers];
+    }
+    
+    /**
+     * Runs the whole solve
+     * Units that already have a result in the work directory are not solved again, so an interrupted run
+     * can be resumed by starting the coordinator with the same arguments
+     */
+    public void solve(File output) throws IOException, InterruptedException
+    {
+        unitsDir.mkdirs();
+        resultsDir.mkdirs();
+        requeueAbandonedUnits(null);
+        if (listUnits(".todo").length == 0 && listResults().isEmpty())
+            writeUnits();
+        
+        for (int i = 0; i < numWorkers; i++)
+            workers[i] = startWorker(i);
+        while (!allUnitsSolved())
+        {
+            Thread.sleep(POLL_INTERVAL_MS);
+            for (int i = 0; i < numWorkers; i++)
+            {
+                if (workers[i] == null || workers[i].isAlive())
+                    continue;
+                int exitCode = workers[i].exitValue();
+                int requeued = requeueAbandonedUnits("worker-" + i);
+                if (exitCode == 0 && requeued == 0)
+                {
+                    workers[i] = null; //ran out of units
+                    continue;
+                }
+                if (++numRestarts > MAX_RESTARTS)
+                    throw new IOException("Workers failed " + numRestarts + " times, giving up");
+                System.out.println("Worker " + i + " exited with code " + exitCode + ", " + requeued +
+                                   " unit(s) put back in the queue, restarting it");
+                workers[i] = startWorker(i);
+            }
+            if (noWorkersLeft() && !allUnitsSolved())
+                workers[0] = startWorker(0); //units came back after every worker had already finished
+        }
+        
+        File merged = new File(workDir, "units-merged.tb");
+        long numEntries = Tablebase.merge(listResults(), merged);
+        System.out.println("Merged " + listResults().size() + " result files, " + numEntries + " positions");
+        File shallow = new File(workDir, "shallow.tb");
+        solveShallowPositions(Tablebase.open(merged), shallow);
+        numEntries = Tablebase.merge(Arrays.asList(merged, shallow), output);
+        System.out.println("Wrote " + numEntries + " positions to " + output);
+    }
+    
+    /**
+     * Writes the positions at the split depth into unit files
+     */
+    private void writeUnits() throws IOException
+    {
+        long[] positions = positionsAtDepth(splitDepth);
+        int numUnits = Math.max(1, Math.min(positions.length, numWorkers * UNITS_PER_WORKER));
+        PrintWriter[] writers = new PrintWriter[numUnits];
+        for (int i = 0; i < numUnits; i++)
+            writers[i] = new PrintWriter(new File(unitsDir, String.format("unit-%05d.todo", i)));
+        for (int i = 0; i < positions.length; i++)
+            writers[i % numUnits].println(Bitboard.toField(positions[i], boardSize));
+        for (PrintWriter writer : writers)
+            writer.close();
+        System.out.println(positions.length + " positions at depth " + splitDepth + " split into " + numUnits +
+                           " units");
+    }
+    
+    /**
+     * @return the symmetry-distinct positions with the given number of pieces where the game is still going
+     */
+    private long[] positionsAtDepth(int depth)
+    {
+        HashSet<Long> level = new HashSet<Long>();
+        level.add(Bitboard.EMPTY);
+        for (int d = 0; d < depth; d++)
+        {
+            HashSet<Long> next = new HashSet<Long>();
+            for (long position : level)
+            {
+                for (long child : children(position))
+                {
+                    if (!isOver(child))
+                        next.add(Bitboard.canonical(child, boardSize));
+                }
+            }
+            level = next;
+        }
+        long[] positions = new long[level.size()];
+        int i = 0;
+        for (long position : level)
+            positions[i++] = position;
+        Arrays.sort(positions);
+        return positions;
+    }
+    
+    /**
+     * Solves the positions with fewer pieces than the split depth from their children's results
+     * Every child at the split depth must be in the merged results: a missing one means a unit's result is
+     * missing or broken, and fails the solve
+     */
+    private void solveShallowPositions(Tablebase deep, File output) throws IOException
+    {
+        HashMap<Long, Integer> shallow = new HashMap<Long, Integer>();
+        for (int depth = splitDepth - 1; depth >= 0; depth--)
+        {
+            for (long position : positionsAtDepth(depth))
+            {
+                int best = ProofNumberSearch.LOSS;
+                for (long child : children(position))
+                {
+                    int result;
+                    if (Bitboard.hasLine(Bitboard.lastMoverPieces(child), boardSize))
+                        result = ProofNumberSearch.WIN;
+                    else if (Bitboard.occupied(child) == Bitboard.fullBoard(boardSize))
+                        result = ProofNumberSearch.TIE;
+                    else
+                    {
+                        Integer known = shallow.get(Bitboard.canonical(child, boardSize));
+                        int childResult = (known != null) ? known : deep.lookup(child);
+                        if (childResult == ProofNumberSearch.UNKNOWN)
+                            throw new IOException("No result for " + Bitboard.toField(child, boardSize) +
+                                                  " in the merged unit results");
+                        result = -childResult;
+                    }
+                    best = Math.max(best, result);
+                }
+                shallow.put(position, best);
+            }
+        }
+        long[] keys = new long[shallow.size()];
+        int i = 0;
+        for (long key : shallow.keySet())
+            keys[i++] = key;
+        Arrays.sort(keys);
+        byte[] results = new byte[keys.length];
+        for (i = 0; i < keys.length; i++)
+            results[i] = (byte)(int)shallow.get(keys[i]);
+        Tablebase.write(output, boardSize, keys, results, keys.length);
+    }
+    
+    private ArrayList<Long> children(long position)
+    {
+        ArrayList<Long> children = new ArrayList<Long>();
+        for (int squares = ~Bitboard.occupied(position) & Bitboard.fullBoard(boardSize); squares != 0;
+             squares &= squares - 1)
+        {
+            children.add(Bitboard.play(position, Integer.numberOfTrailingZeros(squares)));
+        }
+        return children;
+    }
+    
+    private boolean isOver(long position)
+    {
+        return Bitboard.hasLine(Bitboard.lastMoverPieces(position), boardSize) ||
+               Bitboard.occupied(position) == Bitboard.fullBoard(boardSize);
+    }
+    
+    private Process startWorker(int index) throws IOException
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-Xmx" + workerHeap,
+                                                    "-cp", System.getProperty("java.class.path"),
+                                                    "SolveWorker", workDir.getPath(), "" + boardSize, "" + index);
+        builder.inheritIO();
+        return builder.start();
+    }
+    
+    /**
+     * Renames units claimed by the given worker (or by any worker, if null) back to ".todo"
+     * @return the number of units put back in the queue
+     */
+    private int requeueAbandonedUnits(String workerSuffix)
+    {
+        int numRequeued = 0;
+        for (File unit : listUnits(".worker-"))
+        {
+            String name = unit.getName();
+            if (workerSuffix != null && !name.endsWith("." + workerSuffix))
+                continue;
+            if (unit.renameTo(new File(unitsDir, name.substring(0, name.lastIndexOf('.')) + ".todo")))
+                numRequeued++;
+        }
+        return numRequeued;
+    }
+    
+    private File[] listUnits(String marker)
+    {
+        File[] units = unitsDir.listFiles((dir, name) -> name.contains(marker));
+        return (units == null) ? new File[0] : units;
+    }
+    
+    private List<File> listResults()
+    {
+        File[] results = resultsDir.listFiles((dir, name) -> name.endsWith(".tb"));
+        return (results == null) ? new ArrayList<File>() : Arrays.asList(results);
+    }
+    
+    private boolean allUnitsSolved()
+    {
+        return listUnits(".todo").length == 0 && listUnits(".worker-").length == 0;
+    }
+    
+    private boolean noWorkersLeft()
+    {
+        for (Process worker : workers)
+        {
+            if (worker != null)
+                return false;
+        }
+        return true;
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length < 5)
+        {
+            System.out.println("Usage: java SolveCoordinator <board size> <number of workers> <split depth> " +
+                               "<work directory> <output file>");
+            return;
+        }
+        long start = System.nanoTime();
+        new SolveCoordinator(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                             new File(args[3])).solve(new File(args[4]));
+        System.out.println("Solved in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,211 @@
+/**
+ * Worker process for the distributed solve (see SolveCoordinator)
+ *
+ * Claims work units from <work directory>/units by atomically renaming "unit-N.todo" to "unit-N.worker-<id>",
+ * solves every position below the unit's opening positions exactly, and writes them as a sorted tablebase to
+ * <work directory>/results/unit-N.tb (written under a temporary name and renamed, so a crash never leaves a
+ * half-written result behind). Exits with 0 when no units are left to claim
+ *
+ * Usage: java SolveWorker <work directory> <board size> <worker id>
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+public class SolveWorker
+{
+    private final File unitsDir, resultsDir;
+    private final int boardSize;
+    private final int fullBoard;
+    private final String workerId;
+    
+    //Exact results of the positions solved for the current unit, by symmetry-reduced position
+    //(open addressing; keys are stored as ~key so that 0 means an empty slot)
+    private long[] memoKeys = new long[1 << 16];
+    private byte[] memoResults = new byte[1 << 16];
+    private int memoSize;
+    
+    public SolveWorker(File workDir, int boardSize, String workerId)
+    {
+        unitsDir = new File(workDir, "units");
+        resultsDir = new File(workDir, "results");
+        this.boardSize = boardSize;
+        fullBoard = Bitboard.fullBoard(boardSize);
+        this.workerId = workerId;
+    }
+    
+    /**
+     * Claims and solves units until there are none left
+     * @return the number of units this worker solved
+     */
+    public int run() throws IOException
+    {
+        int numSolved = 0;
+        File unit;
+        while ((unit = claimUnit()) != null)
+        {
+            String name = unit.getName().substring(0, unit.getName().lastIndexOf('.'));
+            long start = System.nanoTime();
+            solveUnit(Files.readAllLines(unit.toPath()));
+            File temp = new File(resultsDir, name + ".tb.tmp");
+            writeResults(temp);
+            moveAtomically(temp, new File(resultsDir, name + ".tb"));
+            unit.delete();
+            System.out.println("Worker " + workerId + ": " + name + " solved, " + memoSize + " positions in " +
+                               (System.nanoTime() - start) / 1000000 + " ms");
+            numSolved++;
+        }
+        return numSolved;
+    }
+    
+    /**
+     * @return the claimed unit file, or null if every unit has been claimed
+     */
+    private File claimUnit() throws IOException
+    {
+        File[] todo = unitsDir.listFiles((dir, name) -> name.endsWith(".todo"));
+        if (todo == null)
+            return null;
+        Arrays.sort(todo);
+        for (File unit : todo)
+        {
+            String name = unit.getName();
+            File claimed = new File(unitsDir, name.substring(0, name.length() - ".todo".length()) +
+                                              ".worker-" + workerId);
+            try
+            {
+                moveAtomically(unit, claimed);
+                return claimed;
+            }
+            catch (NoSuchFileException e)
+            {
+                //another worker claimed it first
+            }
+        }
+        return null;
+    }
+    
+    private static void moveAtomically(File from, File to) throws IOException
+    {
+        try
+        {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(from.toPath(), to.toPath());
+        }
+    }
+    
+    /**
+     * Solves every position reachable from the unit's opening positions (given as Game field strings)
+     */
+    private void solveUnit(List<String> fields)
+    {
+        Arrays.fill(memoKeys, 0);
+        memoSize = 0;
+        for (String field : fields)
+        {
+            if (!field.trim().isEmpty())
+                solve(Bitboard.fromField(field.trim()));
+        }
+    }
+    
+    /**
+     * Plain negamax over the whole subtree (no cutoffs, since every position is wanted in the tablebase)
+     * @return the exact result for the player to move
+     */
+    private int solve(long position)
+    {
+        long key = Bitboard.canonical(position, boardSize);
+        int slot = findSlot(key);
+        if (memoKeys[slot] != 0)
+            return memoResults[slot];
+        int best = ProofNumberSearch.LOSS;
+        for (int squares = ~Bitboard.occupied(position) & fullBoard; squares != 0; squares &= squares - 1)
+        {
+            long child = Bitboard.play(position, Integer.numberOfTrailingZeros(squares));
+            int result;
+            if (Bitboard.hasLine(Bitboard.lastMoverPieces(child), boardSize))
+                result = ProofNumberSearch.WIN;
+            else if (Bitboard.occupied(child) == fullBoard)
+                result = ProofNumberSearch.TIE;
+            else
+                result = -solve(child);
+            best = Math.max(best, result);
+        }
+        store(key, best);
+        return best;
+    }
+    
+    private int findSlot(long key)
+    {
+        int mask = memoKeys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int)(h ^ (h >>> 29)) & mask;
+        while (memoKeys[slot] != 0 && memoKeys[slot] != ~key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+    
+    private void store(long key, int result)
+    {
+        if (2 * (memoSize + 1) > memoKeys.length) //keep the table at most half full
+        {
+            long[] oldKeys = memoKeys;
+            byte[] oldResults = memoResults;
+            memoKeys = new long[oldKeys.length * 2];
+            memoResults = new byte[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++)
+            {
+                if (oldKeys[i] != 0)
+                {
+                    int slot = findSlot(~oldKeys[i]);
+                    memoKeys[slot] = oldKeys[i];
+                    memoResults[slot] = oldResults[i];
+                }
+            }
+        }
+        int slot = findSlot(key);
+        memoKeys[slot] = ~key;
+        memoResults[slot] = (byte)result;
+        memoSize++;
+    }
+    
+    /**
+     * Writes the current unit's positions sorted by key
+     */
+    private void writeResults(File file) throws IOException
+    {
+        long[] keys = new long[memoSize];
+        int n = 0;
+        for (int i = 0; i < memoKeys.length; i++)
+        {
+            if (memoKeys[i] != 0)
+                keys[n++] = ~memoKeys[i];
+        }
+        Arrays.sort(keys);
+        byte[] results = new byte[memoSize];
+        for (int i = 0; i < memoSize; i++)
+        {
+            results[i] = memoResults[findSlot(keys[i])];
+        }
+        Tablebase.write(file, boardSize, keys, results, memoSize);
+    }
+    
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 3)
+        {
+            System.out.println("Usage: java SolveWorker <work directory> <board size> <worker id>");
+            System.exit(2);
+        }
+        new SolveWorker(new File(args[0]), Integer.parseInt(args[1]), args[2]).run();
+    }
+}
\ No newline at end of file
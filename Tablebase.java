@@ -0,0 +1,223 @@
+/**
+ * A file of solved positions: the exact result of each position for the player to move
+ *
+ * File format (big-endian, as written by DataOutputStream):
+ *   int   MAGIC
+ *   int   board size
+ *   long  number of entries
+ *   then for each entry, sorted by key: long key (a symmetry-reduced Bitboard position), byte result
+ * Results use ProofNumberSearch's WIN/TIE/LOSS values
+ *
+ * Since every file is sorted, any number of partial files can be merged into one with a streaming k-way merge,
+ * and looked up without loading it: open() memory-maps the entries and binary-searches them in place
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+public class Tablebase
+{
+    public static final int MAGIC = 0x54545442; //"TTTB"
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int HEADER_BYTES = 16;
+    private static final int ENTRY_BYTES = 9; //key + result
+    private static final int ENTRIES_PER_CHUNK = Integer.MAX_VALUE / ENTRY_BYTES; //a mapping is at most 2 GB
+    
+    private final int boardSize;
+    private final long numEntries;
+    private final MappedByteBuffer[] chunks; //the entries, ENTRIES_PER_CHUNK to a chunk
+    
+    private Tablebase(int boardSize, long numEntries, MappedByteBuffer[] chunks)
+    {
+        this.boardSize = boardSize;
+        this.numEntries = numEntries;
+        this.chunks = chunks;
+    }
+    
+    /**
+     * Opens a tablebase for lookups without reading it into the heap: the entries are memory-mapped, so only
+     * the pages a lookup's binary search touches are read (and the operating system can drop them again)
+     */
+    public static Tablebase open(File file) throws IOException
+    {
+        int boardSize;
+        long numEntries;
+        try (DataInputStream in = openInput(file))
+        {
+            boardSize = readHeader(in, file);
+            numEntries = in.readLong();
+        }
+        if (numEntries < 0 || file.length() != HEADER_BYTES + numEntries * ENTRY_BYTES)
+            throw new IOException(file + " holds " + file.length() + " bytes, but its header says " + numEntries +
+                                  " entries");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int)((numEntries + ENTRIES_PER_CHUNK - 1) /
+                                                                   ENTRIES_PER_CHUNK)];
+            for (int i = 0; i < chunks.length; i++)
+            {
+                long first = (long)i * ENTRIES_PER_CHUNK, count = Math.min(ENTRIES_PER_CHUNK, numEntries - first);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * ENTRY_BYTES,
+                                        count * ENTRY_BYTES);
+            }
+            return new Tablebase(boardSize, numEntries, chunks); //the mappings stay valid once the channel closes
+        }
+    }
+    
+    /**
+     * @return the result for the player to move, or ProofNumberSearch.UNKNOWN if the position isn't stored
+     */
+    public int lookup(long position)
+    {
+        long key = Bitboard.canonical(position, boardSize);
+        long low = 0, high = numEntries - 1;
+        while (low <= high)
+        {
+            long middle = (low + high) >>> 1;
+            MappedByteBuffer chunk = chunks[(int)(middle / ENTRIES_PER_CHUNK)];
+            int offset = (int)(middle % ENTRIES_PER_CHUNK) * ENTRY_BYTES;
+            long middleKey = chunk.getLong(offset);
+            if (middleKey < key)
+                low = middle + 1;
+            else if (middleKey > key)
+                high = middle - 1;
+            else
+                return chunk.get(offset + Long.BYTES);
+        }
+        return ProofNumberSearch.UNKNOWN;
+    }
+    
+    public int getBoardSize() {return boardSize;}
+    public long size() {return numEntries;}
+    
+    /**
+     * Writes entries that are already sorted by key
+     */
+    public static void write(File file, int boardSize, long[] keys, byte[] results, int numEntries) throws IOException
+    {
+        try (DataOutputStream out = openOutput(file))
+        {
+            writeHeader(out, boardSize, numEntries);
+            for (int i = 0; i < numEntries; i++)
+            {
+                out.writeLong(keys[i]);
+                out.writeByte(results[i]);
+            }
+        }
+    }
+    
+    /**
+     * Merges sorted tablebase files into one, keeping a single copy of positions found in several of them
+     * Only one entry per input file is held in memory at a time
+     * @return the number of entries written
+     */
+    public static long merge(List<File> inputs, File output) throws IOException
+    {
+        ArrayList<DataInputStream> streams = new ArrayList<DataInputStream>();
+        PriorityQueue<long[]> heads = new PriorityQueue<long[]>((a, b) -> Long.compare(a[0], b[0])); //{key,
+                                                                                     //result, stream index}
+        File temp = new File(output.getPath() + ".tmp");
+        long numEntries = 0;
+        int boardSize = 0;
+        try
+        {
+            long[] remaining = new long[inputs.size()];
+            for (int i = 0; i < inputs.size(); i++)
+            {
+                DataInputStream in = openInput(inputs.get(i));
+                streams.add(in);
+                int size = readHeader(in, inputs.get(i));
+                if (boardSize != 0 && size != boardSize)
+                    throw new IOException(inputs.get(i) + " is for a " + size + "x" + size + " board, expected " +
+                                          boardSize + "x" + boardSize);
+                boardSize = size;
+                remaining[i] = in.readLong();
+                advance(in, i, remaining, heads);
+            }
+            //the entry count isn't known until the end, so the body is written first and the header after
+            try (DataOutputStream out = openOutput(temp))
+            {
+                long lastKey = 0;
+                while (!heads.isEmpty())
+                {
+                    long[] head = heads.poll();
+                    if (numEntries == 0 || head[0] != lastKey)
+                    {
+                        out.writeLong(head[0]);
+                        out.writeByte((int)head[1]);
+                        lastKey = head[0];
+                        numEntries++;
+                    }
+                    advance(streams.get((int)head[2]), (int)head[2], remaining, heads);
+                }
+            }
+        }
+        finally
+        {
+            for (DataInputStream in : streams)
+                in.close();
+        }
+        try (DataOutputStream out = openOutput(output); DataInputStream body = openInput(temp))
+        {
+            writeHeader(out, boardSize, numEntries);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n = body.read(buffer); n > 0; n = body.read(buffer))
+                out.write(buffer, 0, n);
+        }
+        temp.delete();
+        return numEntries;
+    }
+    
+    private static void advance(DataInputStream in, int index, long[] remaining, PriorityQueue<long[]> heads)
+        throws IOException
+    {
+        if (remaining[index] == 0)
+            return;
+        remaining[index]--;
+        try
+        {
+            heads.add(new long[] {in.readLong(), in.readByte(), index});
+        }
+        catch (EOFException e)
+        {
+            throw new IOException("Tablebase file is shorter than its header says", e);
+        }
+    }
+    
+    private static int readHeader(DataInputStream in, File file) throws IOException
+    {
+        if (in.readInt() != MAGIC)
+            throw new IOException(file + " is not a tablebase file");
+        return in.readInt();
+    }
+    
+    private static void writeHeader(DataOutputStream out, int boardSize, long numEntries) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(boardSize);
+        out.writeLong(numEntries);
+    }
+    
+    private static DataInputStream openInput(File file) throws IOException
+    {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+    }
+    
+    private static DataOutputStream openOutput(File file) throws IOException
+    {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    }
+}
\ No newline at end of file
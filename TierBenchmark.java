@@ -0,0 +1,70 @@
+/**
+ * Prices each difficulty tier for capacity planning: plays games between every tier and the perfect engine
+ * (the tier alternates between moving first and second) and reports, per tier, the guaranteed node bound,
+ * the nodes and time its moves actually took, and how it did against perfect play
+ *
+ * Runs on Game's board size (-Dtictactoe.boardSize). On 4x4 and 5x5 the perfect side uses the proof-number
+ * solver, so give it a node budget that fits the time you have (-Dtictactoe.solverNodeBudget)
+ *
+ * Usage: java TierBenchmark [games per tier]
+ */
+
+public class TierBenchmark
+{
+    private static final int DEFAULT_GAMES = 100;
+    
+    /**
+     * @return the square the move changed
+     */
+    private static int changedSquare(String before, String after)
+    {
+        int square = 0;
+        while (before.charAt(square) == after.charAt(square))
+            square++;
+        return square;
+    }
+    
+    public static void main(String[] args) throws GameException
+    {
+        int numGames = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+        Game perfect = new Game(); //plays whichever side is to move in the position it's given
+        perfect.setWarmupWait(0);
+        System.out.println(numGames + " games per tier against perfect play on " + Game.BOARD_SIZE + "x" +
+                           Game.BOARD_SIZE);
+        System.out.println(String.format("%-8s %12s %12s %12s %12s   %s", "tier", "node bound", "max nodes",
+                                         "mean nodes", "mean us", "wins/ties/losses"));
+        for (int tier = Game.EASY; tier <= Game.HARD; tier++)
+        {
+            long moves = 0, totalNodes = 0, maxNodes = 0, totalNanos = 0;
+            int[] results = new int[3];
+            for (int i = 0; i < numGames; i++)
+            {
+                Game game = new Game(i % 2); //the tier moves second in even games, first in odd ones
+                game.setWarmupWait(0);
+                game.setDifficulty(tier);
+                while (game.getWinner() == -1)
+                {
+                    if (game.getPlayer() == 2) //the tier's move
+                    {
+                        long start = System.nanoTime();
+                        game.enemyMove();
+                        totalNanos += System.nanoTime() - start;
+                        moves++;
+                        totalNodes += game.getNodesSearched();
+                        maxNodes = Math.max(maxNodes, game.getNodesSearched());
+                        continue;
+                    }
+                    String before = game.curFieldToString();
+                    perfect.setPosition(before);
+                    perfect.enemyMove();
+                    int square = changedSquare(before, perfect.curFieldToString());
+                    game.playerMove(square / Game.BOARD_SIZE, square % Game.BOARD_SIZE);
+                }
+                results[(game.getWinner() == 2) ? 0 : (game.getWinner() == 0) ? 1 : 2]++;
+            }
+            System.out.println(String.format("%-8s %12d %12d %12.1f %12.1f   %d/%d/%d", Game.DIFFICULTY_NAMES[tier],
+                                             Game.getTierNodeBudget(tier), maxNodes, (double)totalNodes / moves,
+                                             totalNanos / 1000.0 / moves, results[0], results[1], results[2]));
+        }
+    }
+}
\ No newline at end of file
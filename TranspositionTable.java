@@ -0,0 +1,149 @@
+/**
+ * The table the minimax search stores the best move (and its score) of every solved position in
+ *
+ * Keys are Bitboard positions (plus a few context bits chosen by the caller), and every entry is packed into a
+ * single long by entry(), so neither implementation keeps a String per position:
+ *   HeapTranspositionTable    - a HashMap that grows as needed and belongs to one Game (the default)
+ *   OffHeapTranspositionTable - a fixed-size table outside the Java heap, shared by every Game in the process
+ *                               and safe for concurrent searches; the garbage collector never scans it
+ * Pick one with -Dtictactoe.table=heap|offheap (and -Dtictactoe.tableMB for the off-heap size)
+ *
+ * Run "java -Xmx2g TranspositionTable <heap|offheap> [size in MB] [operations]" to measure the GC pauses and
+ * throughput of a table under a large 5x5 workload (run each type in its own JVM)
+ */
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Random;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+public abstract class TranspositionTable
+{
+    public static final long MISSING = 0; //returned by get() for positions that aren't in the table
+    private static final long PRESENT = 1L << 8; //set in every entry, so no entry equals MISSING
+    
+    /**
+     * @return the entry stored for the key, or MISSING
+     */
+    public abstract long get(long key);
+    
+    public abstract void put(long key, long entry);
+    
+    /**
+     * @return the number of positions stored
+     */
+    public abstract long size();
+    
+    public abstract void clear();
+    
+    /**
+     * @return how many times a position replaced a different one (only counted while EngineEvents are enabled)
+     */
+    public long getEvictions() {return 0;}
+    
+    /**
+     * @return the table's fixed size, or 0 if it grows as needed
+     */
+    public long getCapacityBytes() {return 0;}
+    
+    /**
+     * @param type - "heap" or "offheap"
+     */
+    public static TranspositionTable create(String type, int sizeMB)
+    {
+        if (type.equals("heap"))
+            return new HeapTranspositionTable();
+        if (type.equals("offheap"))
+            return OffHeapTranspositionTable.shared(sizeMB);
+        throw new IllegalArgumentException("unknown transposition table type " + type);
+    }
+    
+    /**
+     * Packs a best move (the square it's played on) and its score into an entry
+     */
+    public static long entry(int square, int score) {return ((long)score << 32) | PRESENT | square;}
+    public static int square(long entry) {return (int)entry & 0xFF;}
+    public static int score(long entry) {return (int)(entry >> 32);}
+    
+    /**
+     * Total length and longest single pause of the collections seen since the listener was installed
+     */
+    private static class GcPauses implements NotificationListener
+    {
+        long count, totalMs, maxMs;
+        
+        GcPauses()
+        {
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+                ((NotificationEmitter)gc).addNotificationListener(this, null, null);
+        }
+        
+        public synchronized void handleNotification(Notification notification, Object handback)
+        {
+            if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+                return;
+            GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+            if (info.getGcAction().contains("concurrent") || info.getGcName().contains("Cycles"))
+                return; //runs alongside the program, not a pause
+            count++;
+            totalMs += info.getGcInfo().getDuration();
+            maxMs = Math.max(maxMs, info.getGcInfo().getDuration());
+        }
+    }
+    
+    /**
+     * Random positions from 5x5 games, probed and then stored the way the search does it
+     * Most positions are new, so the heap table keeps growing like bestMoves does in a long search
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        String type = (args.length > 0) ? args[0] : "heap";
+        int sizeMB = (args.length > 1) ? Integer.parseInt(args[1]) : 256;
+        long operations = (args.length > 2) ? Long.parseLong(args[2]) : 20000000;
+        GcPauses pauses = new GcPauses();
+        TranspositionTable table = create(type, sizeMB);
+        Random random = new Random(42);
+        long hits = 0;
+        long start = System.nanoTime();
+        for (long i = 0; i < operations; i++)
+        {
+            long position = Bitboard.EMPTY;
+            int numMoves = 4 + random.nextInt(12);
+            for (int j = 0; j < numMoves; j++)
+            {
+                int square = random.nextInt(25);
+                if ((Bitboard.occupied(position) & (1 << square)) == 0)
+                    position = Bitboard.play(position, square);
+            }
+            if (table.get(position) != MISSING)
+                hits++;
+            else
+                table.put(position, entry(random.nextInt(25), random.nextInt(Game.MAX_SCORE)));
+        }
+        long elapsed = System.nanoTime() - start;
+        System.gc();
+        Thread.sleep(200); //lets the notifications arrive
+        long heapUsed = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+                heapUsed += pool.getUsage().getUsed();
+        }
+        synchronized (pauses)
+        {
+            System.out.println(type + " table: " + operations + " probes, " + hits + " hits, " + table.size() +
+                               " positions stored");
+            System.out.println(String.format("  throughput %.1f M probes/s, heap after GC %d MB",
+                                             operations / (elapsed / 1e3), heapUsed >> 20));
+            System.out.println("  GC pauses: " + pauses.count + ", total " + pauses.totalMs + " ms, longest " +
+                               pauses.maxMs + " ms");
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,63 @@
+/**
+ * SIMD version of BatchEvaluator using the Vector API (jdk.incubator.vector)
+ *
+ * Each vector lane holds a different board, so every win line is checked for SPECIES.length() boards with one
+ * and + compare, and the lane masks are turned into scores with blends instead of branches
+ * A lane is decided by the first line pair that holds a line (see BatchEvaluator), so boards where both sides
+ * have a line score the same as in Game.scoreField
+ * Whether it beats the scalar loop depends on the lane count: compare them with the benchmark below
+ * The boards left over after the last full vector are scored by the scalar loop
+ *
+ * It lives in its own source directory so the main sources build without the incubator module. After
+ * building those, compile it into the same output directory and run with the module added:
+ *   javac --add-modules jdk.incubator.vector -cp out -d out vector/*.java
+ *   java --add-modules jdk.incubator.vector -cp out BatchEvaluator
+ * BatchEvaluator.create() falls back to the scalar evaluator when this class can't be loaded
+ */
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public class VectorBoardEvaluator extends BatchEvaluator
+{
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    
+    public VectorBoardEvaluator(int boardSize)
+    {
+        super(boardSize);
+    }
+    
+    public void evaluate(int[] xPieces, int[] oPieces, int[] scores, int count)
+    {
+        int vectorEnd = SPECIES.loopBound(count);
+        IntVector inProgress = IntVector.broadcast(SPECIES, Game.NO_WINNER_YET_SCORE);
+        for (int i = 0; i < vectorEnd; i += SPECIES.length())
+        {
+            IntVector x = IntVector.fromArray(SPECIES, xPieces, i);
+            IntVector o = IntVector.fromArray(SPECIES, oPieces, i);
+            VectorMask<Integer> xWon = SPECIES.maskAll(false), oWon = SPECIES.maskAll(false);
+            VectorMask<Integer> decided = SPECIES.maskAll(false);
+            for (int g = 0; g < firstLines.length; g++)
+            {
+                int first = firstLines[g], second = secondLines[g];
+                VectorMask<Integer> xLine = x.and(first).compare(VectorOperators.EQ, first)
+                                             .or(x.and(second).compare(VectorOperators.EQ, second));
+                VectorMask<Integer> oLine = o.and(first).compare(VectorOperators.EQ, first)
+                                             .or(o.and(second).compare(VectorOperators.EQ, second));
+                xWon = xWon.or(xLine.andNot(decided));
+                oWon = oWon.or(oLine.andNot(decided).andNot(xLine)); //X's line comes first within a pair
+                decided = decided.or(xLine).or(oLine);
+            }
+            VectorMask<Integer> full = x.or(o).compare(VectorOperators.EQ, fullBoard);
+            inProgress.blend(Game.TIE_SCORE, full)
+                      .blend(-Game.MAX_SCORE, oWon)
+                      .blend(Game.MAX_SCORE, xWon)
+                      .intoArray(scores, i);
+        }
+        evaluateScalar(xPieces, oPieces, scores, vectorEnd, count);
+    }
+    
+    public String getName() {return "vector (" + SPECIES.length() + " lanes)";}
+}
\ No newline at end of file